@@ -1,6 +1,7 @@
 import benchmark.BenchmarkJob;
 import org.apache.commons.configuration.Configuration;
 import org.apache.commons.configuration.PropertiesConfiguration;
+import org.apache.hadoop.fs.FSDataOutputStream;
 import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
 import universalcodec.UniversalCompressorUtility;
@@ -20,6 +21,8 @@ public class Main {
         String task = null;
         String input = null;
         String output = null;
+        String input2 = null;
+        String output2 = null;
         String bench = null;
         String seq_type = null;
 
@@ -38,6 +41,12 @@ public class Main {
                 case "output":
                     output = value;
                     break;
+                case "input2":
+                    input2 = value;
+                    break;
+                case "output2":
+                    output2 = value;
+                    break;
                 case "bench":
                     bench = value;
                     break;
@@ -55,17 +64,28 @@ public class Main {
         assert input != null;
         assert output != null;
 
-        String local_out = input + "." + conf.get("uc.codec") + ".uc";
-
         if (task != null && task.equals("benchmark")) {
             assert bench != null;
             assert seq_type != null;
             BenchmarkJob.bench(input, output, bench, seq_type, conf);
         }
+        else if (input2 != null) {
+            assert output2 != null;
+            FileSystem fs = FileSystem.get(conf);
+
+            // the mates of paired-end reads are cut at the same reads
+            try (FSDataOutputStream ostream1 = fs.create(new Path(output), true);
+                 FSDataOutputStream ostream2 = fs.create(new Path(output2), true)) {
+                UniversalCompressorUtility.compressPaired(input, input2, ostream1, ostream2, conf);
+            }
+        }
         else {
-            UniversalCompressorUtility.compress(input, local_out, conf);
             FileSystem fs = FileSystem.get(conf);
-            fs.copyFromLocalFile(new Path(local_out), new Path(output));
+
+            // the compressed blocks are uploaded while the next ones are being compressed
+            try (FSDataOutputStream ostream = fs.create(new Path(output), true)) {
+                UniversalCompressorUtility.compress(input, ostream, conf);
+            }
         }
     }
 }
@@ -0,0 +1,62 @@
+package fastdoop.compression;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Finds bytes in the buffers of the record readers testing 8 of them at a time (SWAR): each long
+ * read from the buffer is XORed with the searched byte repeated 8 times, so that the matching bytes
+ * become zero, and the first zero byte is found by {@code (x - 0x01..01) & ~x & 0x80..80}. The last
+ * bytes of the range are tested one by one.
+ * <p>
+ * The searches are bounded by an explicit end, so that the readers do not rely on
+ * {@code ArrayIndexOutOfBoundsException} to detect the end of their buffers.
+ */
+public final class ByteScanner {
+
+	private static final long ONES = 0x0101010101010101L;
+	private static final long HIGHS = 0x8080808080808080L;
+
+	private ByteScanner() {
+	}
+
+	/**
+	 * Returns the position of the first {@code b} in {@code buffer[from, to)}, or -1.
+	 */
+	public static int indexOf(byte[] buffer, int from, int to, byte b) {
+		int i = Math.max(from, 0);
+		to = Math.min(to, buffer.length);
+
+		if (to - i >= 8) {
+			// little endian, so that the first matching byte is the lowest one of the word
+			ByteBuffer words = ByteBuffer.wrap(buffer).order(ByteOrder.LITTLE_ENDIAN);
+			long pattern = ONES * (b & 0xFF);
+
+			for (; i <= to - 8; i += 8) {
+				long x = words.getLong(i) ^ pattern;
+				long found = (x - ONES) & ~x & HIGHS;
+
+				if (found != 0)
+					return i + (Long.numberOfTrailingZeros(found) >>> 3);
+			}
+		}
+
+		for (; i < to; i++)
+			if (buffer[i] == b)
+				return i;
+
+		return -1;
+	}
+
+	/**
+	 * Returns the position of the first {@code b} starting a line in {@code buffer[from, to)}, that
+	 * is at the start of the buffer or after a '\n', or -1.
+	 */
+	public static int indexOfLineStart(byte[] buffer, int from, int to, byte b) {
+		for (int i = indexOf(buffer, from, to, b); i >= 0; i = indexOf(buffer, i + 1, to, b))
+			if (i == 0 || buffer[i - 1] == '\n')
+				return i;
+
+		return -1;
+	}
+}
@@ -0,0 +1,381 @@
+package fastdoop.compression;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PushbackInputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.io.compress.CodecPool;
+import org.apache.hadoop.io.compress.CompressionInputStream;
+import org.apache.hadoop.io.compress.Decompressor;
+import org.apache.hadoop.io.compress.SplitCompressionInputStream;
+import org.apache.hadoop.io.compress.SplittableCompressionCodec;
+
+import splittablecodec.BlockIndex;
+import splittablecodec.BlockIndexedCodec;
+import universalcodec.RecordBlockReader;
+
+/**
+ * The decompressed data of the split of a compressed file, as read by the record readers of this
+ * package: the split itself, whole or in chunks, then the data following it, as far as the last
+ * record of the split needs.
+ * <p>
+ * Streams located by a block index end with the last block of the split, so the first block of the
+ * next split is opened on the first read past the end. Other streams just go on.
+ */
+class CompressedSplitSource {
+
+	static final int BORDER_READ_SIZE = 64 * 1024; // 64KB
+
+	private final FSDataInputStream inputFile;
+	private final CompressionInputStream cInputFile;
+	private Decompressor decompressor;
+	private final BlockIndexedCodec indexedCodec;
+	private final BlockIndex blockIndex;
+	private long startByte, endByte;
+
+	/*
+	 * The first block of the next split, decompressed only if the last record of the split
+	 * continues there, and the bytes read from it so far
+	 */
+	private final BlockIndex borderIndex;
+	private CompressionInputStream borderInputFile;
+	private final byte[] borderInput = new byte[BORDER_READ_SIZE];
+	private int borderInputPos, borderInputLen;
+
+	/**
+	 * Opens the blocks of the split from {@code startByte} to {@code endByte}, located by
+	 * {@code blockIndex} if the codec supports it.
+	 */
+	CompressedSplitSource(FSDataInputStream inputFile, SplittableCompressionCodec codec, long startByte, long endByte,
+			BlockIndex blockIndex, BlockIndex borderIndex) throws IOException {
+		this.inputFile = inputFile;
+		this.blockIndex = blockIndex;
+		this.borderIndex = borderIndex;
+		indexedCodec = codec instanceof BlockIndexedCodec && blockIndex != null ? (BlockIndexedCodec) codec : null;
+
+		// decompressors and their buffers are shared by the readers of the JVM
+		decompressor = CodecPool.getDecompressor(codec);
+
+		SplitCompressionInputStream in;
+
+		try {
+			if (indexedCodec != null)
+				in = indexedCodec.createInputStream(inputFile, decompressor, startByte, endByte, blockIndex);
+			else
+				in = codec.createInputStream(inputFile, decompressor, startByte, endByte, SplittableCompressionCodec.READ_MODE.BYBLOCK);
+		} catch (IOException | RuntimeException e) {
+			CodecPool.returnDecompressor(decompressor);
+			decompressor = null;
+			throw e;
+		}
+
+		cInputFile = in;
+		this.startByte = in.getAdjustedStart();
+		this.endByte = in.getAdjustedEnd();
+	}
+
+	/**
+	 * Reads a stream of a non-splittable codec, from its current position up to {@code endByte}.
+	 */
+	CompressedSplitSource(CompressionInputStream cInputFile, long endByte) {
+		this.cInputFile = cInputFile;
+		this.endByte = endByte;
+
+		inputFile = null;
+		decompressor = null;
+		indexedCodec = null;
+		blockIndex = null;
+		borderIndex = null;
+	}
+
+	long getAdjustedStart() {
+		return startByte;
+	}
+
+	long getAdjustedEnd() {
+		return endByte;
+	}
+
+	long getPos() throws IOException {
+		return cInputFile.getPos();
+	}
+
+	/**
+	 * True if the split is read from the blocks of its index, so that its stream ends with its
+	 * last block.
+	 */
+	boolean isBlockIndexed() {
+		return indexedCodec != null;
+	}
+
+	/**
+	 * True if there may be data after the split, that is unless the split is the last one of an
+	 * indexed archive or holds whole records only.
+	 */
+	boolean hasBorder() {
+		return indexedCodec == null || (borderIndex != null && borderIndex.size() > 0);
+	}
+
+	/**
+	 * Reads the split, as {@code InputStream.read}.
+	 */
+	int read(byte[] b, int off, int len) throws IOException {
+		return cInputFile.read(b, off, len);
+	}
+
+	/**
+	 * Reads the whole split, leaving room for {@code extra} more bytes at the end of the returned
+	 * buffer. With the uncompressed sizes in the index, the blocks are decompressed straight into it.
+	 */
+	byte[] readSplit(int blockBufferSize, int extra) throws IOException {
+		if (blockIndex != null && blockIndex.hasUncompressedSizes())
+			return readIndexedSplit(blockIndex.getUncompressedSize(), extra);
+
+		ArrayList<byte[]> blocks = new ArrayList<>();
+		long totalSize = 0;
+		int readByte;
+
+		byte[] buffer = new byte[blockBufferSize];
+
+		while (cInputFile.getPos() < endByte) {
+			readByte = cInputFile.read(buffer, 0, blockBufferSize);
+
+			if (readByte > 0) {
+				totalSize += readByte;
+				blocks.add(Arrays.copyOf(buffer, readByte));
+			}
+			else if (readByte < 0)
+				break;
+		}
+
+		if (totalSize + extra > Integer.MAX_VALUE - 8)
+			throw new IOException("Decompressed split of " + totalSize + " bytes, exceeding the maximum array size");
+
+		byte[] inputSplitBuffer = new byte[(int) totalSize + extra];
+		int destPos = 0;
+
+		for (byte[] block : blocks) {
+			System.arraycopy(block, 0, inputSplitBuffer, destPos, block.length);
+			destPos += block.length;
+		}
+
+		return inputSplitBuffer;
+	}
+
+	/*
+	 * Reads the split of known uncompressed size
+	 */
+	private byte[] readIndexedSplit(long size, int extra) throws IOException {
+		if (size + extra > Integer.MAX_VALUE - 8)
+			throw new IOException("Decompressed split of " + size + " bytes, exceeding the maximum array size");
+
+		byte[] inputSplitBuffer = new byte[(int) size + extra];
+		int destPos = 0;
+		int readByte;
+
+		while (destPos < size && (readByte = cInputFile.read(inputSplitBuffer, destPos, (int) size - destPos)) > 0)
+			destPos += readByte;
+
+		// the end of the stream must be reached, moving its position to the end of the split
+		if (destPos < size || cInputFile.read(new byte[1], 0, 1) != -1)
+			throw new IOException("Uncompressed size of the split different from the one in the block index");
+
+		return inputSplitBuffer;
+	}
+
+	/**
+	 * Reads the whole split in chunks of about {@code chunkSize} bytes, cut on the records starting
+	 * with {@code delimiter} as the blocks of the archive. Unless the split is {@code recordAligned},
+	 * the chunks start with its first record, found as by the buffered readers, and the last one is
+	 * completed from the data following the split, so that they always hold whole records.
+	 */
+	ArrayList<byte[]> readChunks(byte delimiter, int chunkSize, boolean recordAligned) throws IOException {
+		ArrayList<byte[]> chunks = new ArrayList<>();
+		InputStream in = cInputFile;
+
+		if (!recordAligned) {
+			byte[] head = readFirstRecord(delimiter);
+
+			if (head == null)
+				return chunks;
+
+			// the bytes read past the first record go back in front of the rest of the split
+			PushbackInputStream pushback = new PushbackInputStream(cInputFile, Math.max(1, head.length));
+			pushback.unread(head);
+			in = pushback;
+		}
+
+		RecordBlockReader chunkReader = new RecordBlockReader(in, delimiter, chunkSize);
+		byte[] chunk;
+
+		while ((chunk = chunkReader.nextBlock()) != null)
+			chunks.add(chunk);
+
+		if (!recordAligned && !chunks.isEmpty())
+			chunks.set(chunks.size() - 1, completeLastRecord(chunks.get(chunks.size() - 1), delimiter));
+
+		return chunks;
+	}
+
+	/*
+	 * Reads the split up to its first record and returns the bytes read from there on, or null if
+	 * it has none. As in the buffered readers, a FASTA record starts at the first '>', a FASTQ one at
+	 * the first '@' starting a line, unless the next line also starts with '@'.
+	 */
+	private byte[] readFirstRecord(byte delimiter) throws IOException {
+		byte[] head = new byte[BORDER_READ_SIZE];
+		int len = 0, from = 0;
+		boolean eof = false;
+
+		while (true) {
+			int i = delimiter == '@' ? ByteScanner.indexOfLineStart(head, from, len, delimiter)
+					: ByteScanner.indexOf(head, from, len, delimiter);
+			int j = delimiter == '@' && i >= 0 ? ByteScanner.indexOf(head, i, len, (byte) '\n') : -1;
+
+			if (i >= 0 && (delimiter != '@' || eof || (j >= 0 && j + 1 < len))) {
+				if (j >= 0 && j + 1 < len && head[j + 1] == '@')
+					i = j + 1;
+
+				return Arrays.copyOfRange(head, i, len);
+			}
+
+			if (eof)
+				return null;
+
+			// the last byte is kept to tell whether the next one starts a line
+			int keep = i >= 0 ? i : Math.max(0, len - 1);
+			System.arraycopy(head, keep, head, 0, len - keep);
+			len -= keep;
+			from = i >= 0 ? 0 : Math.min(1, len);
+
+			head = ensureCapacity(head, len + BORDER_READ_SIZE);
+			int n = cInputFile.read(head, len, head.length - len);
+
+			if (n < 0)
+				eof = true;
+			else
+				len += n;
+		}
+	}
+
+	/*
+	 * Appends to the last chunk the rest of its last record, read after the end of the split: up to
+	 * the next '>' for FASTA, up to the fourth line of the record for FASTQ
+	 */
+	private byte[] completeLastRecord(byte[] chunk, byte delimiter) throws IOException {
+		int missing = 0;
+
+		if (delimiter == '@') {
+			int lines = 0;
+
+			for (int i = ByteScanner.indexOf(chunk, 0, chunk.length, (byte) '\n'); i >= 0;
+					i = ByteScanner.indexOf(chunk, i + 1, chunk.length, (byte) '\n'))
+				lines++;
+
+			// a line cut by the end of the split needs its newline too
+			missing = chunk[chunk.length - 1] == '\n' ? (4 - lines % 4) % 4 : 4 - lines % 4;
+
+			if (missing == 0)
+				return chunk;
+		}
+
+		byte[] record = chunk;
+		int len = chunk.length;
+		int nextByte;
+
+		// '>' may be a quality value, so FASTQ records end on their lines only
+		while ((nextByte = readBorderByte()) != -1 && (delimiter == '@' || nextByte != '>')) {
+			record = ensureCapacity(record, len + 1);
+			record[len++] = (byte) nextByte;
+
+			if (delimiter == '@' && nextByte == '\n' && --missing == 0)
+				break;
+		}
+
+		return record == chunk ? chunk : Arrays.copyOf(record, len);
+	}
+
+	/**
+	 * Returns the next byte after the end of the split, or -1.
+	 */
+	int readBorderByte() throws IOException {
+		if (borderInputPos == borderInputLen && !fillBorder())
+			return -1;
+
+		return borderInput[borderInputPos++] & 0xFF;
+	}
+
+	/**
+	 * Reads up to {@code len} bytes after the end of the split, and at most {@link #BORDER_READ_SIZE},
+	 * returning their number or -1.
+	 */
+	int readBorder(byte[] b, int off, int len) throws IOException {
+		if (borderInputPos == borderInputLen && !fillBorder())
+			return -1;
+
+		int n = Math.min(len, borderInputLen - borderInputPos);
+		System.arraycopy(borderInput, borderInputPos, b, off, n);
+		borderInputPos += n;
+
+		return n;
+	}
+
+	private boolean fillBorder() throws IOException {
+		CompressionInputStream source = borderSource();
+
+		borderInputLen = source == null ? -1 : source.read(borderInput, 0, borderInput.length);
+		borderInputPos = 0;
+
+		if (borderInputLen <= 0) {
+			borderInputLen = 0;
+			return false;
+		}
+
+		return true;
+	}
+
+	private CompressionInputStream borderSource() throws IOException {
+		if (indexedCodec == null)
+			return cInputFile;
+
+		if (borderInputFile == null && borderIndex != null && borderIndex.size() > 0) {
+			long start = borderIndex.getOffset(0);
+			long end = start + borderIndex.getSize(0);
+
+			// the decompressor of the split is done with its blocks
+			borderInputFile = indexedCodec.createInputStream(inputFile, decompressor, start, end, borderIndex);
+		}
+
+		return borderInputFile;
+	}
+
+	/**
+	 * Returns {@code buffer}, or a copy of it of at least {@code capacity} bytes if it is smaller.
+	 */
+	static byte[] ensureCapacity(byte[] buffer, int capacity) {
+		if (capacity <= buffer.length)
+			return buffer;
+
+		return Arrays.copyOf(buffer, Math.max(capacity, 2 * buffer.length));
+	}
+
+	/**
+	 * Closes the streams and returns the decompressor to the pool. The file is left to the reader.
+	 */
+	void close() throws IOException {
+		try {
+			cInputFile.close();
+
+			if (borderInputFile != null)
+				borderInputFile.close();
+		} finally {
+			if (decompressor != null) {
+				CodecPool.returnDecompressor(decompressor);
+				decompressor = null;
+			}
+		}
+	}
+}
@@ -0,0 +1,120 @@
+package fastdoop.compression;
+
+/**
+ * A batch of FASTQ records lying in the same buffer, stored column by column: for each record,
+ * the offsets of the first and of the last byte of its header, sequence, second header and quality,
+ * as in {@code QRecord}. The header offsets exclude the leading '@', and those of the second header
+ * the leading '+'.
+ * <p>
+ * The arrays returned by the getters are valid up to {@link #size()}. They are reused, together
+ * with the buffer, by the next call filling the batch.
+ *
+ * @see FASTQReadsRecordReader#nextBatch(FASTQBatch)
+ */
+public class FASTQBatch {
+
+	public static final int DEFAULT_CAPACITY = 4096;
+
+	private byte[] buffer;
+	private int size;
+
+	private final int[] startKey, endKey;
+	private final int[] startValue, endValue;
+	private final int[] startKey2, endKey2;
+	private final int[] startQuality, endQuality;
+
+	public FASTQBatch() {
+		this(DEFAULT_CAPACITY);
+	}
+
+	public FASTQBatch(int capacity) {
+		startKey = new int[capacity];
+		endKey = new int[capacity];
+		startValue = new int[capacity];
+		endValue = new int[capacity];
+		startKey2 = new int[capacity];
+		endKey2 = new int[capacity];
+		startQuality = new int[capacity];
+		endQuality = new int[capacity];
+	}
+
+	void clear() {
+		buffer = null;
+		size = 0;
+	}
+
+	boolean isFull() {
+		return size == startKey.length;
+	}
+
+	void add(byte[] buffer, int sk, int ek, int sv, int ev, int sk2, int ek2, int sq, int eq) {
+		this.buffer = buffer;
+
+		startKey[size] = sk;
+		endKey[size] = ek;
+		startValue[size] = sv;
+		endValue[size] = ev;
+		startKey2[size] = sk2;
+		endKey2[size] = ek2;
+		startQuality[size] = sq;
+		endQuality[size] = eq;
+
+		size++;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public int capacity() {
+		return startKey.length;
+	}
+
+	public byte[] getBuffer() {
+		return buffer;
+	}
+
+	public int[] getStartKeys() {
+		return startKey;
+	}
+
+	public int[] getEndKeys() {
+		return endKey;
+	}
+
+	public int[] getStartValues() {
+		return startValue;
+	}
+
+	public int[] getEndValues() {
+		return endValue;
+	}
+
+	public int[] getStartKeys2() {
+		return startKey2;
+	}
+
+	public int[] getEndKeys2() {
+		return endKey2;
+	}
+
+	public int[] getStartQualities() {
+		return startQuality;
+	}
+
+	public int[] getEndQualities() {
+		return endQuality;
+	}
+
+	public String getKey(int i) {
+		return new String(buffer, startKey[i], endKey[i] - startKey[i] + 1);
+	}
+
+	public String getValue(int i) {
+		return new String(buffer, startValue[i], endValue[i] - startValue[i] + 1);
+	}
+
+	public String getQuality(int i) {
+		return new String(buffer, startQuality[i], endQuality[i] - startQuality[i] + 1);
+	}
+}
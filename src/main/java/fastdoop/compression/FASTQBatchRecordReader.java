@@ -0,0 +1,52 @@
+package fastdoop.compression;
+
+import java.io.IOException;
+
+import org.apache.hadoop.io.NullWritable;
+import org.apache.hadoop.mapreduce.InputSplit;
+import org.apache.hadoop.mapreduce.RecordReader;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+
+/**
+ * Returns the records of a FASTQ split by batches of up to {@code uc.batch.size} records, so that
+ * the framework calls the mapper once per batch rather than once per record. The same
+ * {@link FASTQBatch} is returned by every call.
+ *
+ * @see FASTQUniversalBatchInputFormat
+ */
+public class FASTQBatchRecordReader extends RecordReader<NullWritable, FASTQBatch> {
+
+	private final FASTQReadsRecordReader reader = new FASTQReadsRecordReader();
+	private FASTQBatch batch;
+
+	@Override
+	public void initialize(InputSplit split, TaskAttemptContext context) throws IOException, InterruptedException {
+		batch = new FASTQBatch(context.getConfiguration().getInt("uc.batch.size", FASTQBatch.DEFAULT_CAPACITY));
+		reader.initialize(split, context);
+	}
+
+	@Override
+	public boolean nextKeyValue() throws IOException, InterruptedException {
+		return reader.nextBatch(batch);
+	}
+
+	@Override
+	public NullWritable getCurrentKey() {
+		return NullWritable.get();
+	}
+
+	@Override
+	public FASTQBatch getCurrentValue() {
+		return batch;
+	}
+
+	@Override
+	public float getProgress() throws IOException, InterruptedException {
+		return reader.getProgress();
+	}
+
+	@Override
+	public void close() throws IOException {
+		reader.close();
+	}
+}
@@ -42,6 +42,10 @@ public class FASTQInputFileFormat extends FileInputFormat<Text, QRecord> {
 	public RecordReader<Text, QRecord> createRecordReader(InputSplit split, TaskAttemptContext context)
 			throws IOException, InterruptedException {
 
+		// reads whose lines may be wrapped are parsed and returned in chunks
+		if (context.getConfiguration().getBoolean("uc.fastq.long.reads", false))
+			return new FASTQLongReadsRecordReader();
+
 		return new FASTQReadsRecordReader();
 
 	}
@@ -0,0 +1,559 @@
+package fastdoop.compression;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+import dsrc.DsrcCodec;
+import fastdoop.QRecord;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.compress.CompressionCodec;
+import org.apache.hadoop.io.compress.CompressionCodecFactory;
+import org.apache.hadoop.mapreduce.InputSplit;
+import org.apache.hadoop.mapreduce.RecordReader;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+import org.apache.hadoop.mapreduce.lib.input.FileSplit;
+
+import splittablecodec.BlockIndex;
+import splittablecodec.BlockIndexedCodec;
+import splittablecodec.CodecFileSplit;
+import universalcodec.UniversalCodec;
+
+/**
+ * Reads FASTQ files of long reads, e.g. from Nanopore or PacBio, whose sequence and quality may be
+ * wrapped on several lines. Each read is returned as one or more {@code QRecord}s of up to
+ * {@code uc.fastq.long.chunk.size} bases, each one with the header of the read, a slice of its
+ * sequence, without newlines, and the qualities of the same bases. The key is the position in the
+ * read of the first base of the record, so "0" marks the first record of each read.
+ * <p>
+ * The split is parsed from a window of the file refilled as the records are consumed, and only the
+ * sequence of the current read is kept, so the memory used depends on the longest read rather
+ * than on the size of the split. Uncompressed files and {@code .uc} archives are supported. When a
+ * split may start inside a read, its first read is found at the first line starting with '@' where
+ * two reads can be parsed, each one with sequence lines of letters and as many qualities as bases.
+ *
+ * @see FASTQUniversalInputFormat
+ */
+public class FASTQLongReadsRecordReader extends RecordReader<Text, QRecord> {
+
+	final int CHUNK_SIZE = 1024 * 1024; // 1MB
+
+	final int WINDOW_SIZE = 4 * 1024 * 1024; // 4MB
+
+	final int CHECKED_READS = 2;
+
+	private Path path;
+
+	private FSDataInputStream inputFile;
+
+	/*
+	 * The decompressed split of an archive, followed by the first block of the next split, read
+	 * only if the last read of the split continues there
+	 */
+	private CompressedSplitSource source;
+	private BlockIndex blockIndex;
+	private BlockIndex borderIndex;
+
+	private long startByte, endByte;
+
+	/*
+	 * The bytes of the split still to read from an uncompressed file, or -1 for an archive, and
+	 * whether the reads may continue past the end of the split
+	 */
+	private long splitRemaining;
+	private boolean hasBorder;
+
+	/*
+	 * The reads starting in the first ownedBytes bytes belong to the split, a number known once
+	 * the whole split has been read
+	 */
+	private boolean splitDone;
+	private long splitBytes;
+	private long ownedBytes = Long.MAX_VALUE;
+
+	/*
+	 * The window on the data: bytes from windowOffset to windowOffset + sizeWindow, parsed up to
+	 * posWindow. Bytes after markWindow, if set, are kept when the window is refilled.
+	 */
+	private byte[] window;
+	private int posWindow, sizeWindow, markWindow = -1;
+	private long windowOffset;
+
+	/*
+	 * The read being returned, and the number of its bases returned so far
+	 */
+	private final ByteArray header = new ByteArray();
+	private final ByteArray sequence = new ByteArray();
+	private final ByteArray header2 = new ByteArray();
+	private final ByteArray checkedHeader = new ByteArray();
+	private final ByteArray checkedHeader2 = new ByteArray();
+	private int returnedBases;
+	private boolean inRead;
+
+	private int chunkSize;
+	private byte[] recordBuffer = new byte[0];
+
+	private Text currKey;
+
+	private QRecord currRecord;
+
+	@Override
+	public void initialize(InputSplit genericSplit, TaskAttemptContext context) throws IOException, InterruptedException {
+		Configuration job = context.getConfiguration();
+
+		chunkSize = Math.max(1, job.getInt("uc.fastq.long.chunk.size", CHUNK_SIZE));
+		window = new byte[Math.max(1, job.getInt("uc.fastq.long.buffer.size", WINDOW_SIZE))];
+
+		FileSplit split = (FileSplit) genericSplit;
+		path = split.getPath();
+		startByte = split.getStart();
+		endByte = startByte + split.getLength();
+		blockIndex = split instanceof CodecFileSplit ? ((CodecFileSplit) split).getBlockIndex() : null;
+		borderIndex = split instanceof CodecFileSplit ? ((CodecFileSplit) split).getBorderIndex() : null;
+		inputFile = path.getFileSystem(job).open(path);
+
+		currKey = new Text("null");
+		currRecord = new QRecord();
+
+		CompressionCodec compressionCodec = new CompressionCodecFactory(job).getCodec(path);
+		boolean lineStart;
+
+		if (compressionCodec == null) { // uncompressed file
+			// the byte before the split tells whether the split starts with a line
+			long from = startByte > 0 ? startByte - 1 : 0;
+
+			inputFile.seek(from);
+			splitRemaining = endByte - from;
+			hasBorder = true;
+			lineStart = startByte == 0;
+		}
+		else if (compressionCodec instanceof BlockIndexedCodec && blockIndex != null) {
+			if (compressionCodec instanceof DsrcCodec) ((DsrcCodec) compressionCodec).setConf(job);
+			else if (compressionCodec instanceof UniversalCodec) ((UniversalCodec) compressionCodec).setConf(job);
+
+			source = new CompressedSplitSource(inputFile, (BlockIndexedCodec) compressionCodec, startByte, endByte,
+					blockIndex, borderIndex);
+
+			splitRemaining = -1;
+			hasBorder = !((CodecFileSplit) split).isRecordAligned();
+			lineStart = true;
+
+			// no read to skip at the start
+			if (!hasBorder)
+				return;
+		}
+		else
+			throw new IOException("Long reads are read from uncompressed files or block-indexed archives only, not " + path);
+
+		if (startByte > 0 || !lineStart)
+			seekFirstRead(lineStart);
+	}
+
+	@Override
+	public boolean nextKeyValue() throws IOException, InterruptedException {
+		if (!inRead && !startRead())
+			return false;
+
+		int start = returnedBases;
+		int bases = Math.min(chunkSize, sequence.size - start);
+
+		// @header \n sequence \n +header2 \n quality
+		int size = header.size + bases + header2.size + bases + 5;
+
+		if (recordBuffer.length < size)
+			recordBuffer = new byte[Math.max(size, 2 * recordBuffer.length)];
+
+		int p = 0;
+
+		recordBuffer[p++] = '@';
+		System.arraycopy(header.data, 0, recordBuffer, p, header.size);
+		p += header.size;
+		recordBuffer[p++] = '\n';
+
+		currRecord.setStartKey(1);
+		currRecord.setEndKey(p - 2);
+
+		System.arraycopy(sequence.data, start, recordBuffer, p, bases);
+		currRecord.setStartValue(p);
+		p += bases;
+		currRecord.setEndValue(p - 1);
+		recordBuffer[p++] = '\n';
+
+		recordBuffer[p++] = '+';
+		System.arraycopy(header2.data, 0, recordBuffer, p, header2.size);
+		currRecord.setStartKey2(p);
+		p += header2.size;
+		currRecord.setEndKey2(p - 1);
+		recordBuffer[p++] = '\n';
+
+		currRecord.setStartQuality(p);
+		readQualities(recordBuffer, p, bases);
+		p += bases;
+		currRecord.setEndQuality(p - 1);
+
+		currRecord.setBuffer(recordBuffer);
+		currKey.set(Integer.toString(start));
+
+		returnedBases += bases;
+
+		if (returnedBases == sequence.size)
+			endRead();
+
+		return true;
+	}
+
+	/*
+	 * Parses the header, the sequence and the second header of the next read of the split
+	 */
+	private boolean startRead() throws IOException {
+		while (!atEnd() && window[posWindow] == '\n')
+			posWindow++;
+
+		if (atEnd() || windowOffset + posWindow >= ownedBytes)
+			return false;
+
+		if (window[posWindow] != '@')
+			throw new IOException("Malformed FASTQ read in " + path + ": header expected");
+
+		posWindow++;
+
+		header.size = 0;
+		readLine(header);
+
+		sequence.size = 0;
+
+		while (true) {
+			if (atEnd())
+				throw new IOException("Malformed FASTQ read in " + path + ": quality missing");
+
+			if (window[posWindow] == '+')
+				break;
+
+			readLine(sequence);
+		}
+
+		posWindow++;
+
+		header2.size = 0;
+		readLine(header2);
+
+		returnedBases = 0;
+		inRead = true;
+
+		return true;
+	}
+
+	/*
+	 * Copies the next bases qualities of the read to dest, skipping the newlines
+	 */
+	private void readQualities(byte[] dest, int destPos, int bases) throws IOException {
+		int copied = 0;
+
+		while (copied < bases) {
+			if (atEnd())
+				throw new IOException("Malformed FASTQ read in " + path + ": quality shorter than the sequence");
+
+			if (window[posWindow] == '\n') {
+				posWindow++;
+				continue;
+			}
+
+			int end = ByteScanner.indexOf(window, posWindow, Math.min(sizeWindow, posWindow + bases - copied), (byte) '\n');
+			int n = (end < 0 ? Math.min(sizeWindow, posWindow + bases - copied) : end) - posWindow;
+
+			System.arraycopy(window, posWindow, dest, destPos + copied, n);
+			posWindow += n;
+			copied += n;
+		}
+	}
+
+	/*
+	 * Moves past the newline ending the quality of the read
+	 */
+	private void endRead() throws IOException {
+		inRead = false;
+
+		if (atEnd())
+			return;
+
+		if (window[posWindow] != '\n')
+			throw new IOException("Malformed FASTQ read in " + path + ": quality longer than the sequence");
+
+		posWindow++;
+	}
+
+	/*
+	 * Moves to the first read starting in the split. If lineStart is not set, the data starts
+	 * inside a line, which is skipped.
+	 */
+	private void seekFirstRead(boolean lineStart) throws IOException {
+		while (true) {
+			if (!lineStart && readLine(null) < 0)
+				return;
+
+			lineStart = false;
+
+			if (atEnd())
+				return;
+
+			if (window[posWindow] == '@') {
+				// the candidate read is parsed again if valid, so it is kept in the window
+				markWindow = posWindow;
+				boolean valid = true;
+
+				for (int i = 0; i < CHECKED_READS && valid && !atEnd(); i++)
+					valid = checkRead();
+
+				posWindow = markWindow;
+				markWindow = -1;
+
+				if (valid)
+					return;
+			}
+		}
+	}
+
+	/*
+	 * Checks that a read starts at posWindow, and moves past it: a header, the lines of letters up
+	 * to a line starting with '+' and empty or repeating the header, as many qualities as bases and
+	 * then another header or the end of the data
+	 */
+	private boolean checkRead() throws IOException {
+		if (window[posWindow] != '@')
+			return false;
+
+		checkedHeader.size = 0;
+		readLine(checkedHeader);
+
+		long bases = 0;
+		int lines = 0;
+
+		// even an empty read has a sequence line and a quality line
+		for (; ; lines++) {
+			if (atEnd())
+				return false;
+
+			if (window[posWindow] == '+')
+				break;
+
+			long length = checkSequenceLine();
+
+			if (length < 0)
+				return false;
+
+			bases += length;
+		}
+
+		if (lines == 0)
+			return false;
+
+		// the second header, if any, repeats the first one
+		checkedHeader2.size = 0;
+		readLine(checkedHeader2);
+
+		if (checkedHeader2.size > 1 && !checkedHeader2.equalsAfterFirst(checkedHeader))
+			return false;
+
+		long qualities = 0;
+
+		do {
+			if (atEnd())
+				return false;
+
+			qualities += readLine(null);
+		} while (qualities < bases);
+
+		if (qualities != bases)
+			return false;
+
+		while (!atEnd() && window[posWindow] == '\n')
+			posWindow++;
+
+		return atEnd() || window[posWindow] == '@';
+	}
+
+	/*
+	 * Moves past the current line, returning its length, or -1 if it has other characters than
+	 * letters, '-', '.' and '*'
+	 */
+	private long checkSequenceLine() throws IOException {
+		long length = 0;
+
+		while (!atEnd()) {
+			byte b = window[posWindow++];
+
+			if (b == '\n')
+				return length;
+
+			if (((b | 0x20) < 'a' || (b | 0x20) > 'z') && b != '-' && b != '.' && b != '*')
+				return -1;
+
+			length++;
+		}
+
+		return length;
+	}
+
+	/*
+	 * Appends the rest of the current line to dest, if any, and moves past its newline. Returns
+	 * the length of the line, or -1 at the end of the data.
+	 */
+	private int readLine(ByteArray dest) throws IOException {
+		if (atEnd())
+			return -1;
+
+		int length = 0;
+
+		while (true) {
+			int end = ByteScanner.indexOf(window, posWindow, sizeWindow, (byte) '\n');
+			int stop = end < 0 ? sizeWindow : end;
+
+			if (dest != null)
+				dest.append(window, posWindow, stop - posWindow);
+
+			length += stop - posWindow;
+			posWindow = stop;
+
+			if (end >= 0) {
+				posWindow++;
+				return length;
+			}
+
+			if (!fillWindow())
+				return length;
+		}
+	}
+
+	/*
+	 * Returns true if no more data follows posWindow, refilling the window if needed
+	 */
+	private boolean atEnd() throws IOException {
+		while (posWindow == sizeWindow)
+			if (!fillWindow())
+				return true;
+
+		return false;
+	}
+
+	/*
+	 * Drops the parsed bytes, except those after markWindow, and reads more data after the others.
+	 * The window grows only if it is full of bytes to keep.
+	 */
+	private boolean fillWindow() throws IOException {
+		int keep = markWindow >= 0 ? Math.min(markWindow, posWindow) : posWindow;
+
+		if (keep > 0) {
+			System.arraycopy(window, keep, window, 0, sizeWindow - keep);
+			sizeWindow -= keep;
+			posWindow -= keep;
+			windowOffset += keep;
+
+			if (markWindow >= 0)
+				markWindow -= keep;
+		}
+		else if (sizeWindow == window.length)
+			window = Arrays.copyOf(window, 2 * window.length);
+
+		int readByte = read(window, sizeWindow, window.length - sizeWindow);
+
+		if (readByte <= 0)
+			return false;
+
+		sizeWindow += readByte;
+
+		return true;
+	}
+
+	/*
+	 * Reads the split, then the data following it
+	 */
+	private int read(byte[] b, int off, int len) throws IOException {
+		if (!splitDone) {
+			int readByte;
+
+			if (splitRemaining >= 0)
+				readByte = splitRemaining == 0 ? -1 : inputFile.read(b, off, (int) Math.min(len, splitRemaining));
+			else
+				readByte = source.read(b, off, len);
+
+			if (readByte > 0) {
+				splitBytes += readByte;
+
+				if (splitRemaining >= 0)
+					splitRemaining -= readByte;
+
+				return readByte;
+			}
+
+			splitDone = true;
+			ownedBytes = splitBytes;
+		}
+
+		if (!hasBorder)
+			return -1;
+
+		if (splitRemaining >= 0)
+			return inputFile.read(b, off, len);
+
+		return source.readBorder(b, off, len);
+	}
+
+	@Override
+	public void close() throws IOException {
+		if (source != null)
+			source.close();
+
+		if (inputFile != null)
+			inputFile.close();
+	}
+
+	@Override
+	public Text getCurrentKey() throws IOException, InterruptedException {
+		return currKey;
+	}
+
+	@Override
+	public QRecord getCurrentValue() throws IOException, InterruptedException {
+		return currRecord;
+	}
+
+	@Override
+	public float getProgress() throws IOException, InterruptedException {
+		if (splitDone)
+			return 1;
+
+		if (splitRemaining >= 0)
+			return endByte > startByte ? Math.min(1f, (windowOffset + posWindow) / (float) (endByte - startByte)) : 1;
+
+		return endByte > startByte ? Math.min(1f, (source.getPos() - startByte) / (float) (endByte - startByte)) : 1;
+	}
+
+	/*
+	 * A growable array of bytes
+	 */
+	private static class ByteArray {
+		private byte[] data = new byte[256];
+		private int size;
+
+		void append(byte[] b, int off, int len) {
+			if (size + len > data.length)
+				data = Arrays.copyOf(data, Math.max(size + len, 2 * data.length));
+
+			System.arraycopy(b, off, data, size, len);
+			size += len;
+		}
+
+		boolean equalsAfterFirst(ByteArray other) {
+			if (size != other.size)
+				return false;
+
+			for (int i = 1; i < size; i++)
+				if (data[i] != other.data[i])
+					return false;
+
+			return true;
+		}
+	}
+}
@@ -0,0 +1,69 @@
+package fastdoop.compression;
+
+import java.io.IOException;
+
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapreduce.InputSplit;
+import org.apache.hadoop.mapreduce.RecordReader;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+
+import splittablecodec.PairedFileSplit;
+
+/**
+ * Reads the same reads from the two archives of a {@link PairedFileSplit}, returning the mates
+ * together. The key is the header of the first mate.
+ *
+ * @see FASTQPairedUniversalInputFormat
+ */
+public class FASTQPairedRecordReader extends RecordReader<Text, QRecordPair> {
+
+	private final FASTQReadsRecordReader first = new FASTQReadsRecordReader();
+	private final FASTQReadsRecordReader second = new FASTQReadsRecordReader();
+	private final QRecordPair pair = new QRecordPair();
+
+	@Override
+	public void initialize(InputSplit genericSplit, TaskAttemptContext context) throws IOException, InterruptedException {
+		PairedFileSplit split = (PairedFileSplit) genericSplit;
+
+		first.initialize(split.getFirst(), context);
+		second.initialize(split.getSecond(), context);
+	}
+
+	@Override
+	public boolean nextKeyValue() throws IOException, InterruptedException {
+		boolean has_first = first.nextKeyValue();
+		boolean has_second = second.nextKeyValue();
+
+		if (has_first != has_second)
+			throw new IOException("The archives of the split have different numbers of reads");
+
+		if (has_first)
+			pair.set(first.getCurrentValue(), second.getCurrentValue());
+
+		return has_first;
+	}
+
+	@Override
+	public Text getCurrentKey() throws IOException, InterruptedException {
+		return first.getCurrentKey();
+	}
+
+	@Override
+	public QRecordPair getCurrentValue() {
+		return pair;
+	}
+
+	@Override
+	public float getProgress() throws IOException, InterruptedException {
+		return (first.getProgress() + second.getProgress()) / 2;
+	}
+
+	@Override
+	public void close() throws IOException {
+		try {
+			first.close();
+		} finally {
+			second.close();
+		}
+	}
+}
@@ -0,0 +1,61 @@
+package fastdoop.compression;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapreduce.InputSplit;
+import org.apache.hadoop.mapreduce.JobContext;
+import org.apache.hadoop.mapreduce.RecordReader;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+
+import universalcodec.UniversalInputFormat;
+
+/**
+ * Reads the mates of paired-end reads from two {@code .uc} FASTQ archives compressed together by
+ * {@code UniversalCompressorUtility.compressPaired}, so that they are paired in the map tasks,
+ * without a shuffle.
+ * <p>
+ * The input paths list the archives of the first mates, whose names contain {@code uc.paired.r1.tag}
+ * ({@code _R1} by default). The archive of the second mates is the one whose name has
+ * {@code uc.paired.r2.tag} ({@code _R2} by default) in its place. Archives of the second mates found
+ * in the input paths are skipped.
+ */
+public class FASTQPairedUniversalInputFormat extends UniversalInputFormat<Text, QRecordPair> {
+
+	@Override
+	public RecordReader<Text, QRecordPair> createRecordReader(InputSplit split, TaskAttemptContext context) {
+
+		return new FASTQPairedRecordReader();
+	}
+
+	@Override
+	protected List<FileStatus> listStatus(JobContext job) throws IOException {
+		String r2_tag = job.getConfiguration().get("uc.paired.r2.tag", "_R2");
+		List<FileStatus> files = new ArrayList<>();
+
+		for (FileStatus file : super.listStatus(job))
+			if (!file.getPath().getName().contains(r2_tag))
+				files.add(file);
+
+		return files;
+	}
+
+	@Override
+	protected Path getMatePath(Path path, Configuration conf) throws IOException {
+		String r1_tag = conf.get("uc.paired.r1.tag", "_R1");
+		String r2_tag = conf.get("uc.paired.r2.tag", "_R2");
+
+		String name = path.getName();
+		int tag = name.lastIndexOf(r1_tag);
+
+		if (tag == -1)
+			throw new IOException("The name of " + path + " does not contain " + r1_tag);
+
+		return new Path(path.getParent(), name.substring(0, tag) + r2_tag + name.substring(tag + r1_tag.length()));
+	}
+}
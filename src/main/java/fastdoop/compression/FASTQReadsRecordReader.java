@@ -28,8 +28,6 @@ import fastdoop.QRecord;
 import org.apache.hadoop.io.Text;
 import org.apache.hadoop.io.compress.CompressionCodec;
 import org.apache.hadoop.io.compress.CompressionCodecFactory;
-import org.apache.hadoop.io.compress.CompressionInputStream;
-import org.apache.hadoop.io.compress.SplitCompressionInputStream;
 import org.apache.hadoop.io.compress.SplittableCompressionCodec;
 import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.fs.FSDataInputStream;
@@ -40,6 +38,9 @@ import org.apache.hadoop.mapreduce.lib.input.*;
 import universalcodec.UniversalCodec;
 
 import org.apache.hadoop.mapreduce.RecordReader;
+import splittablecodec.BlockIndex;
+import splittablecodec.BlockIndexedCodec;
+import splittablecodec.CodecFileSplit;
 
 /**
  * This class reads {@literal <key, value>} pairs from an {@code InputSplit}.
@@ -65,9 +66,16 @@ public class FASTQReadsRecordReader extends RecordReader<Text, QRecord> {
 
 	final int BLOCK_BUFFER_SIZE = 20 * 1024 * 1024; // 20MB
 
+	final int CHUNK_SIZE = 64 * 1024 * 1024; // 64MB
+
 	private FSDataInputStream inputFile;
 	
-	private CompressionInputStream cInputFile;
+	/*
+	 * The decompressed split, followed by the first block of the next split
+	 */
+	private CompressedSplitSource source;
+	private BlockIndex blockIndex;
+	private BlockIndex borderIndex;
 
 	private long startByte, endByte;
 
@@ -102,6 +110,37 @@ public class FASTQReadsRecordReader extends RecordReader<Text, QRecord> {
 
 	boolean isLastSplit = false;
 
+	/*
+	 * With uc.reader.streaming, compressed splits are parsed from a window of the decompressed
+	 * stream, refilled as the records are consumed, instead of from the whole decompressed split.
+	 * Past the end of the split, the window is filled from the next one: bufferOffset is the position
+	 * in the split of the first byte of the window and splitSize, once known, the size of the split.
+	 */
+	private boolean streaming;
+	private boolean endOfStream;
+	private final int[] lineEnds = new int[4];
+	private int recordStart;
+	private long bufferOffset;
+	private long splitSize = -1;
+
+	/*
+	 * With uc.reader.chunked, the records of the decompressed split are kept in chunks ending on
+	 * record boundaries, so that it may exceed the size of a Java array, and each record lies in a
+	 * single chunk
+	 */
+	private ArrayList<byte[]> chunks;
+	private int chunkIndex;
+
+	/*
+	 * True if the split holds whole records only, as declared by the archive
+	 */
+	private boolean recordAligned;
+
+	/*
+	 * A record read by nextBatch that did not fit in the previous batch
+	 */
+	private boolean pendingRecord;
+
 	public FASTQReadsRecordReader() {
 		super();
 	}
@@ -123,6 +162,9 @@ public class FASTQReadsRecordReader extends RecordReader<Text, QRecord> {
 		FileSplit split = (FileSplit) genericSplit;
 		Path path = split.getPath();
 		startByte = split.getStart();
+		blockIndex = split instanceof CodecFileSplit ? ((CodecFileSplit) split).getBlockIndex() : null;
+		recordAligned = split instanceof CodecFileSplit && ((CodecFileSplit) split).isRecordAligned();
+		borderIndex = split instanceof CodecFileSplit ? ((CodecFileSplit) split).getBorderIndex() : null;
 		endByte = startByte + split.getLength();
 		inputFile = path.getFileSystem(job).open(path);
 
@@ -141,8 +183,28 @@ public class FASTQReadsRecordReader extends RecordReader<Text, QRecord> {
 			if (codec instanceof DsrcCodec) ((DsrcCodec) codec).setConf(job);
 			else if (codec instanceof UniversalCodec) ((UniversalCodec) codec).setConf(job);
 			inputFile.seek(startByte);
+
+			// the last record of the split is completed from the next block located by the index
+			if (job.getBoolean("uc.reader.chunked", false) && codec instanceof BlockIndexedCodec && blockIndex != null) {
+				initializeChunked((SplittableCompressionCodec) codec, job.getInt("uc.reader.chunk.size", CHUNK_SIZE));
+				return;
+			}
+
+			// the window stops at the end of the split only for streams located by a block index
+			if (job.getBoolean("uc.reader.streaming", false) && codec instanceof BlockIndexedCodec && blockIndex != null) {
+				initializeStreaming((SplittableCompressionCodec) codec, job.getInt("uc.reader.streaming.buffer.size", BLOCK_BUFFER_SIZE));
+				return;
+			}
+
 			myInputSplitBuffer = readCompressedSplit((SplittableCompressionCodec) codec);
 			sizeBuffer = myInputSplitBuffer.length;
+
+			// no header to skip at the start and no record to complete from the next split
+			if (recordAligned) {
+				endOfStream = true;
+				currRecord.setBuffer(myInputSplitBuffer);
+				return;
+			}
 		}
 		else { // compressed with LZ4, ZSTD (to check)
 			myInputSplitBuffer = readCompressedSplit(codec);
@@ -166,35 +228,25 @@ public class FASTQReadsRecordReader extends RecordReader<Text, QRecord> {
 			myInputSplitBuffer = tempBuffer;
 		}
 
-		for (int i = 0; i < sizeBuffer; i++) {
-			if (myInputSplitBuffer[i] == '@') {
-				if (i == 0) {
-					posBuffer = i + 1;
-					break;
-				}
-				if (myInputSplitBuffer[i - 1] == '\n') {
-					posBuffer = i + 1;
-					break;
-				}
+		int firstHeader = ByteScanner.indexOfLineStart(myInputSplitBuffer, 0, sizeBuffer, (byte) '@');
 
-			}
-		}
+		if (firstHeader >= 0)
+			posBuffer = firstHeader + 1;
 
 		/*
 		 * We skip the first header of the split
 		 */
-		int j = posBuffer + 1;
-
-		while (myInputSplitBuffer[j] != '\n') {
-			j++;
-		}
+		int j = ByteScanner.indexOf(myInputSplitBuffer, posBuffer + 1, myInputSplitBuffer.length, (byte) '\n');
 
-		if (myInputSplitBuffer[j + 1] == '@')
+		if (j >= 0 && j + 1 < myInputSplitBuffer.length && myInputSplitBuffer[j + 1] == '@')
 			posBuffer = j + 2;
 	}
 
 	@Override
 	public boolean nextKeyValue() throws IOException, InterruptedException {
+		if (streaming || recordAligned)
+			return nextStreamingRecord();
+
 		if (endMyInputSplit) {
 			return false;
 		}
@@ -208,16 +260,16 @@ public class FASTQReadsRecordReader extends RecordReader<Text, QRecord> {
 
 		/*
 		 * We look for the next short sequence my moving posBuffer until a
-		 * newline character is found.
-		 * End of split is implicitly managed through
-		 * ArrayIndexOutOfBoundsException handling
+		 * newline character or the end of the split is found
 		 */
 
-		try {
-			while (myInputSplitBuffer[posBuffer] != '\n') {
-				posBuffer++;
-			}
-		} catch (ArrayIndexOutOfBoundsException e) {
+		int newLine = ByteScanner.indexOf(myInputSplitBuffer, posBuffer, myInputSplitBuffer.length, (byte) '\n');
+
+		if (newLine >= 0)
+			posBuffer = newLine;
+		else {
+			posBuffer = Math.max(posBuffer, myInputSplitBuffer.length);
+
 			/*
 			 * If we reached the end of the split while scanning a sequence, we
 			 * use nextsplitKey to remember that more characters have to be
@@ -242,17 +294,17 @@ public class FASTQReadsRecordReader extends RecordReader<Text, QRecord> {
 
 			currRecord.setStartValue(posBuffer + 1);
 
-			try {
-				posBuffer = posBuffer + 2;
+			posBuffer = posBuffer + 2;
 
-				while (myInputSplitBuffer[posBuffer] != '+') {
-					posBuffer++;
-				}
+			int plus = ByteScanner.indexOf(myInputSplitBuffer, posBuffer, myInputSplitBuffer.length, (byte) '+');
+
+			if (plus >= 0) {
+				posBuffer = plus;
 
 				currRecord.setEndValue(posBuffer - 2);
 				posBuffer++;
 
-			} catch (ArrayIndexOutOfBoundsException e) {
+			} else {
 
 				if (isLastSplit) {
 					return false;
@@ -268,9 +320,7 @@ public class FASTQReadsRecordReader extends RecordReader<Text, QRecord> {
 				nextsplitValue = true;
 				int c = 0;
 
-				if (posBuffer > myInputSplitBuffer.length) {
-					posBuffer = myInputSplitBuffer.length;
-				}
+				posBuffer = myInputSplitBuffer.length;
 
 				for (int i = posBuffer - 1; i >= 0; i--) {
 					if (((char) myInputSplitBuffer[i]) != '\n')
@@ -289,59 +339,55 @@ public class FASTQReadsRecordReader extends RecordReader<Text, QRecord> {
 
 			currRecord.setStartKey2(posBuffer);
 
-			try {
+			newLine = ByteScanner.indexOf(myInputSplitBuffer, posBuffer, myInputSplitBuffer.length, (byte) '\n');
 
-				try {
-					while (myInputSplitBuffer[posBuffer] != '\n') {
-						posBuffer++;
-					}
-				} catch (ArrayIndexOutOfBoundsException e) {
+			if (newLine >= 0)
+				posBuffer = newLine;
+			else {
+				posBuffer = Math.max(posBuffer, myInputSplitBuffer.length);
 
-					if (isLastSplit) {
-						return false;
-					}
-					/*
-					 * If we reached the end of the split while scanning a
-					 * sequence,
-					 * we use nextsplitQuality to remember that more characters
-					 * have
-					 * to be fetched from the next split for retrieving (and
-					 * discarding)
-					 * the quality linevalue
-					 */
-					endMyInputSplit = true;
-					nextsplitSecondHeader = true;
-					nextsplitQuality = true;
+				if (isLastSplit) {
+					return false;
 				}
-				currRecord.setEndKey2(posBuffer - 1);
+				/*
+				 * If we reached the end of the split while scanning a
+				 * sequence,
+				 * we use nextsplitQuality to remember that more characters
+				 * have
+				 * to be fetched from the next split for retrieving (and
+				 * discarding)
+				 * the quality linevalue
+				 */
+				endMyInputSplit = true;
+				nextsplitSecondHeader = true;
+				nextsplitQuality = true;
+			}
+			currRecord.setEndKey2(posBuffer - 1);
 
-				if (!endMyInputSplit) {
+			if (!endMyInputSplit) {
 
-					currRecord.setStartQuality(posBuffer + 1);
-					currRecord.setEndQuality(currRecord.getStartQuality() + currRecord.getEndValue() - currRecord.getStartValue());
-					posBuffer = (currRecord.getEndQuality() + 3);
+				currRecord.setStartQuality(posBuffer + 1);
+				currRecord.setEndQuality(currRecord.getStartQuality() + currRecord.getEndValue() - currRecord.getStartValue());
+				posBuffer = (currRecord.getEndQuality() + 3);
 
-					if (myInputSplitBuffer.length <= currRecord.getEndQuality()) {
+				if (myInputSplitBuffer.length <= currRecord.getEndQuality()) {
 
-						currRecord.setEndQuality(myInputSplitBuffer.length - 1);
-						posBuffer = (myInputSplitBuffer.length - 1);
+					currRecord.setEndQuality(myInputSplitBuffer.length - 1);
+					posBuffer = (myInputSplitBuffer.length - 1);
 
-						throw new ArrayIndexOutOfBoundsException();
-					} else {
-						if (posBuffer > (myInputSplitBuffer.length - 1)) {
-							endMyInputSplit = true;
-							return true;
-						}
+					// the quality line goes on in the next split
+					if (isLastSplit) {
+						return false;
 					}
-				}
 
-			} catch (ArrayIndexOutOfBoundsException e) {
-				if (isLastSplit) {
-					return false;
+					endMyInputSplit = true;
+					nextsplitQuality = true;
+				} else {
+					if (posBuffer > (myInputSplitBuffer.length - 1)) {
+						endMyInputSplit = true;
+						return true;
+					}
 				}
-
-				endMyInputSplit = true;
-				nextsplitQuality = true;
 			}
 
 		}
@@ -351,19 +397,8 @@ public class FASTQReadsRecordReader extends RecordReader<Text, QRecord> {
 		 */
 		if (endMyInputSplit) {
 			
-			byte[] blockBuff = null;
-			int readByte = 0;
-			int posNewBuffer = 0;
-			
-			if (cInputFile != null) {
-				blockBuff = new byte[BLOCK_BUFFER_SIZE];
-				readByte = cInputFile.read(blockBuff, 0, BLOCK_BUFFER_SIZE);
-				if (readByte == 1){
-					int r = cInputFile.read(blockBuff, 1, BLOCK_BUFFER_SIZE);
-					if (r > 0)
-						readByte += r;
-				}
-			}
+			// the rest of the record is read from the next split, as far as needed
+			int nextByte = 0;
 
 			/*
 			 * If there is another split after this one and we still need to
@@ -375,6 +410,7 @@ public class FASTQReadsRecordReader extends RecordReader<Text, QRecord> {
 			if (nextsplitKey) {
 				currRecord.setBuffer(borderBuffer);
 				int j = posBuffer - currRecord.getStartKey();
+				ensureBorderCapacity(j);
 				System.arraycopy(myInputSplitBuffer, currRecord.getStartKey(), borderBuffer, 0, j);
 
 				posBuffer = j;
@@ -384,21 +420,21 @@ public class FASTQReadsRecordReader extends RecordReader<Text, QRecord> {
 				
 				byte b;
 
-				if (cInputFile == null) {// uncompressed file 
+				if (source == null) {// uncompressed file 
 					try {
 						
 						while ((b = inputFile.readByte()) != '\n')
-							borderBuffer[j++] = b;
+							putBorder(j++, b);
 						
 					} catch (EOFException e) {
 						nextsplitValue = false;
 					}
 				}
 				else {
-					while(posNewBuffer < readByte && (b = blockBuff[posNewBuffer++]) != '\n')
-						borderBuffer[j++]=b;
+					while ((nextByte = source.readBorderByte()) != -1 && nextByte != '\n')
+						putBorder(j++, (byte) nextByte);
 
-					if(posNewBuffer == readByte) {
+					if (nextByte == -1) {
 						nextsplitValue = false; 
 						return false;
 					}
@@ -424,6 +460,7 @@ public class FASTQReadsRecordReader extends RecordReader<Text, QRecord> {
 					currRecord.setBuffer(borderBuffer);
 
 					int j = currRecord.getEndKey() + 1 - currRecord.getStartKey();
+					ensureBorderCapacity(j);
 					System.arraycopy(myInputSplitBuffer, currRecord.getStartKey(), borderBuffer, 0, j);
 
 					currRecord.setStartKey(0);
@@ -432,6 +469,7 @@ public class FASTQReadsRecordReader extends RecordReader<Text, QRecord> {
 					int start = currRecord.getStartValue();
 					currRecord.setStartValue(j);
 
+					ensureBorderCapacity(j + (currRecord.getEndValue() + 1 - start));
 					if ((currRecord.getEndValue() + 1 - start) > 0)
 						System.arraycopy(myInputSplitBuffer, start, borderBuffer, j, (currRecord.getEndValue() + 1 - start));
 
@@ -452,19 +490,19 @@ public class FASTQReadsRecordReader extends RecordReader<Text, QRecord> {
 				
 				byte b;
 				
-				if (cInputFile == null) {// uncompressed file
+				if (source == null) {// uncompressed file
 					try {
 						
 						while ((b = inputFile.readByte()) != '+' && b != '\n')
-							borderBuffer[posBuffer++] = b;
+							putBorder(posBuffer++, b);
 						
 					} catch (EOFException e) {}
 				}
 				else {
-					while(posNewBuffer < readByte && (b = blockBuff[posNewBuffer++]) != '+' && b != '\n') 
-						borderBuffer[posBuffer++] = b;
+					while ((nextByte = source.readBorderByte()) != -1 && nextByte != '+' && nextByte != '\n')
+						putBorder(posBuffer++, (byte) nextByte);
 
-					if(posNewBuffer == readByte)
+					if (nextByte == -1)
 						return false;
 				}
 
@@ -473,37 +511,35 @@ public class FASTQReadsRecordReader extends RecordReader<Text, QRecord> {
 				posBuffer++;
 				currRecord.setStartKey2(posBuffer);
 				
-				if (cInputFile == null) {// uncompressed file
+				if (source == null) {// uncompressed file
 					try {
 						
 						while ((b = inputFile.readByte()) != '\n')
-							borderBuffer[posBuffer++] = b;
+							putBorder(posBuffer++, b);
 						
 						currRecord.setEndKey2(posBuffer - 1);
 
 						currRecord.setStartQuality(posBuffer);
 
 						while ((b = inputFile.readByte()) != '\n')
-							borderBuffer[posBuffer++] = b;
+							putBorder(posBuffer++, b);
 						
 					} catch (EOFException e) {}
 				}
 				else {
-					while(posNewBuffer < readByte && (b = blockBuff[posNewBuffer++]) != '\n') 
-						borderBuffer[posBuffer++] = b;
+					while ((nextByte = source.readBorderByte()) != -1 && nextByte != '\n')
+						putBorder(posBuffer++, (byte) nextByte);
 
-					if(posNewBuffer == readByte)
+					if (nextByte == -1)
 						return false;
 					
 					currRecord.setEndKey2(posBuffer - 1);
 
 					currRecord.setStartQuality(posBuffer);
 					
-					while(posNewBuffer < readByte && (b = blockBuff[posNewBuffer++]) != '\n') 
-						borderBuffer[posBuffer++] = b;
-
-					if(posNewBuffer == readByte)
-						return false;
+					// the quality line of the last record of the file may lack its newline
+					while ((nextByte = source.readBorderByte()) != -1 && nextByte != '\n')
+						putBorder(posBuffer++, (byte) nextByte);
 				}
 
 				currRecord.setEndQuality(posBuffer - 1);
@@ -521,6 +557,7 @@ public class FASTQReadsRecordReader extends RecordReader<Text, QRecord> {
 
 				// copy key
 				int j = currRecord.getEndKey() + 1 - currRecord.getStartKey();
+				ensureBorderCapacity(j);
 				System.arraycopy(myInputSplitBuffer, currRecord.getStartKey(), borderBuffer, 0, j);
 
 				currRecord.setStartKey(0);
@@ -528,6 +565,7 @@ public class FASTQReadsRecordReader extends RecordReader<Text, QRecord> {
 
 				// copy value
 				int v = currRecord.getEndValue() + 1 - currRecord.getStartValue();
+				ensureBorderCapacity(j + v);
 				System.arraycopy(myInputSplitBuffer, currRecord.getStartValue(), borderBuffer, j, v);
 
 				currRecord.setStartValue(j);
@@ -540,6 +578,7 @@ public class FASTQReadsRecordReader extends RecordReader<Text, QRecord> {
 					currRecord.setStartKey2(currRecord.getEndValue() + 1);
 					posBuffer = currRecord.getStartKey2();
 
+					ensureBorderCapacity(currRecord.getStartKey2() + (currRecord.getEndKey2() + 1 - start));
 					if ((currRecord.getEndKey2() + 1 - start) > 0)
 						System.arraycopy(myInputSplitBuffer, start, borderBuffer, currRecord.getStartKey2(),
 								(currRecord.getEndKey2() + 1 - start));
@@ -549,19 +588,19 @@ public class FASTQReadsRecordReader extends RecordReader<Text, QRecord> {
 					currRecord.setEndKey2(posBuffer);
 					posBuffer++;
 					
-					if (cInputFile == null) {// uncompressed file
+					if (source == null) {// uncompressed file
 						try {
 							
 							while ((b = inputFile.readByte()) != '\n')
-								borderBuffer[posBuffer++] = b;
+								putBorder(posBuffer++, b);
 							
 						} catch (EOFException e) {}
 					}
 					else {
-						while(posNewBuffer < readByte && (b = blockBuff[posNewBuffer++]) != '\n') 
-							borderBuffer[posBuffer++] = b;
+						while ((nextByte = source.readBorderByte()) != -1 && nextByte != '\n')
+							putBorder(posBuffer++, (byte) nextByte);
 
-						if(posNewBuffer == readByte)
+						if (nextByte == -1)
 							return false;
 					}
 					
@@ -571,6 +610,7 @@ public class FASTQReadsRecordReader extends RecordReader<Text, QRecord> {
 				} else {
 
 					int s = currRecord.getEndKey2() + 1 - currRecord.getStartKey2();
+					ensureBorderCapacity(currRecord.getEndValue() + 1 + s);
 					System.arraycopy(myInputSplitBuffer, currRecord.getStartKey2(), borderBuffer, currRecord.getEndValue() + 1,
 							s);
 					currRecord.setStartKey2(currRecord.getEndValue() + 1);
@@ -580,6 +620,7 @@ public class FASTQReadsRecordReader extends RecordReader<Text, QRecord> {
 					currRecord.setStartQuality(currRecord.getEndKey2() + 1);
 					posBuffer = currRecord.getStartQuality();
 
+					ensureBorderCapacity(currRecord.getStartQuality() + (currRecord.getEndQuality() + 1 - start));
 					if ((currRecord.getEndQuality() + 1 - start) > 0)
 						System.arraycopy(myInputSplitBuffer, start, borderBuffer, currRecord.getStartQuality(),
 								(currRecord.getEndQuality() + 1 - start));
@@ -590,20 +631,18 @@ public class FASTQReadsRecordReader extends RecordReader<Text, QRecord> {
 					posBuffer++;
 				}
 
-				if (cInputFile == null) {// uncompressed file
+				if (source == null) {// uncompressed file
 					try {
 						
 						while ((b = inputFile.readByte()) != '\n')
-							borderBuffer[posBuffer++] = b;
+							putBorder(posBuffer++, b);
 						
 					} catch (EOFException e) {}
 				}
 				else {
-					while(posNewBuffer < readByte && (b = blockBuff[posNewBuffer++]) != '\n') 
-						borderBuffer[posBuffer++] = b;
-
-					if(posNewBuffer == readByte)
-						return false;
+					// the quality line of the last record of the file may lack its newline
+					while ((nextByte = source.readBorderByte()) != -1 && nextByte != '\n')
+						putBorder(posBuffer++, (byte) nextByte);
 				}
 
 				currRecord.setEndQuality(posBuffer - 1);
@@ -616,9 +655,50 @@ public class FASTQReadsRecordReader extends RecordReader<Text, QRecord> {
 
 	}
 
+	/**
+	 * Fills {@code batch} with the next records of the split, up to its capacity, and returns
+	 * {@code false} if there are none left. The records of a batch lie in the same buffer, shared
+	 * with the reader and valid until the next call, so a batch ends early where the buffer changes.
+	 * It must not be mixed with {@link #nextKeyValue()} on the same reader.
+	 */
+	public boolean nextBatch(FASTQBatch batch) throws IOException, InterruptedException {
+		batch.clear();
+
+		// records parsed straight into the batch, refilling the buffer only before the first one
+		if (streaming || recordAligned) {
+			while (!batch.isFull() && parseStreamingRecord(batch.size() == 0))
+				batch.add(myInputSplitBuffer, recordStart + 1, lineEnds[0] - 1, lineEnds[0] + 1, lineEnds[1] - 1,
+						lineEnds[1] + 2, lineEnds[2] - 1, lineEnds[2] + 1, lineEnds[3] - 1);
+
+			return batch.size() > 0;
+		}
+
+		while (!batch.isFull()) {
+			if (!pendingRecord && !nextKeyValue())
+				break;
+
+			pendingRecord = false;
+
+			// the last record of the split may be in the border buffer
+			if (batch.size() > 0 && currRecord.getBuffer() != batch.getBuffer()) {
+				pendingRecord = true;
+				break;
+			}
+
+			batch.add(currRecord.getBuffer(), currRecord.getStartKey(), currRecord.getEndKey(), currRecord.getStartValue(),
+					currRecord.getEndValue(), currRecord.getStartKey2(), currRecord.getEndKey2(), currRecord.getStartQuality(),
+					currRecord.getEndQuality());
+		}
+
+		return batch.size() > 0;
+	}
+
 	@Override
 	public void close() throws IOException {
 
+		if (source != null)
+			source.close();
+
 		if (inputFile != null)
 			inputFile.close();
 	}
@@ -635,93 +715,267 @@ public class FASTQReadsRecordReader extends RecordReader<Text, QRecord> {
 
 	@Override
 	public float getProgress() throws IOException, InterruptedException {
+		if (chunks != null)
+			return chunks.isEmpty() ? 1 : (chunkIndex + (sizeBuffer > 0 ? posBuffer / (float) sizeBuffer : 1)) / chunks.size();
+
+		if (streaming)
+			return endByte > startByte ? Math.min(1f, (source.getPos() - startByte) / (float) (endByte - startByte)) : 1;
+
 		return sizeBuffer > 0 ? posBuffer / sizeBuffer : 1;
 
 	}
 
-	private byte[] readCompressedSplit(SplittableCompressionCodec codec){
-		try {
-			cInputFile = codec.createInputStream(inputFile, codec.createDecompressor(), startByte, endByte, SplittableCompressionCodec.READ_MODE.BYBLOCK);
-			startByte = ((SplitCompressionInputStream) cInputFile).getAdjustedStart(); 
-			endByte = ((SplitCompressionInputStream) cInputFile).getAdjustedEnd();
+	/*
+	 * Opens the decompressed stream of the split and fills the buffer with its first bytes
+	 */
+	private void initializeStreaming(SplittableCompressionCodec codec, int buffer_size) throws IOException {
+		openCompressedSplit(codec);
 
-			ArrayList<byte[]> blocks = new ArrayList<>();
-			ArrayList<Integer> block_sizes = new ArrayList<>();
+		streaming = true;
+		myInputSplitBuffer = new byte[Math.max(1, buffer_size)];
+		sizeBuffer = 0;
+		fillStreamingBuffer(0);
 
-			int totalSize = 0;
-			int readByte;
+		if (!recordAligned)
+			seekFirstRecord();
+	}
 
-			byte[] inputSplitBuffer;
+	/*
+	 * Decompresses the whole split into chunks of about chunk_size bytes, cut on record boundaries
+	 * as the blocks of the archive, then parses them one after the other as in the streaming mode.
+	 * The chunks start with the first record of the split and end with its last one, whole.
+	 */
+	private void initializeChunked(SplittableCompressionCodec codec, int chunk_size) throws IOException {
+		openCompressedSplit(codec);
 
-			byte[] buffer = new byte[BLOCK_BUFFER_SIZE];
+		streaming = true;
+		chunks = source.readChunks((byte) '@', chunk_size, recordAligned);
 
-			while(cInputFile.getPos() < endByte){
+		chunkIndex = -1;
+		myInputSplitBuffer = new byte[0];
+		nextChunk();
 
-				readByte = cInputFile.read(buffer, 0, BLOCK_BUFFER_SIZE);
+		posBuffer = 0;
+		currRecord.setBuffer(myInputSplitBuffer);
+	}
 
-				if(readByte > 0){
-					totalSize += readByte;
-					blocks.add(Arrays.copyOf(buffer, readByte));
-					block_sizes.add(readByte);
-				}
+	/*
+	 * Moves to the next chunk, releasing the consumed one
+	 */
+	private void nextChunk() {
+		if (chunkIndex >= 0)
+			chunks.set(chunkIndex, null);
+
+		if (chunkIndex + 1 < chunks.size())
+			myInputSplitBuffer = chunks.get(++chunkIndex);
+		else
+			myInputSplitBuffer = new byte[0];
+
+		sizeBuffer = myInputSplitBuffer.length;
+		endOfStream = chunkIndex >= chunks.size() - 1;
+	}
+
+	/*
+	 * Places posBuffer on the first record of the buffer, found as in the buffered mode: the first
+	 * '@' starting a line, unless the next line also starts with '@'. The buffer is refilled until
+	 * the line following the first '@' is in it.
+	 */
+	private void seekFirstRecord() throws IOException {
+		int from = 0;
+
+		while (true) {
+			int i = ByteScanner.indexOfLineStart(myInputSplitBuffer, from, sizeBuffer, (byte) '@');
+			int j = i < 0 ? -1 : nextLineEnd(i);
+
+			if (endOfStream || (j >= 0 && j + 1 < sizeBuffer)) {
+				if (i < 0)
+					i = sizeBuffer;
+				else if (j >= 0 && j + 1 < sizeBuffer && myInputSplitBuffer[j + 1] == '@')
+					i = j + 1;
+
+				posBuffer = i;
+				currRecord.setBuffer(myInputSplitBuffer);
+				return;
+			}
+
+			// the last byte is kept to tell whether the next one starts a line
+			if (i < 0) {
+				fillStreamingBuffer(Math.max(0, sizeBuffer - 1));
+				from = Math.min(1, sizeBuffer);
+			}
+			else {
+				fillStreamingBuffer(i);
+				from = 0;
+			}
+		}
+	}
+
+	/*
+	 * Sets the current record to the one parsed from the buffer
+	 */
+	private boolean nextStreamingRecord() throws IOException {
+		if (!parseStreamingRecord(true))
+			return false;
+
+		currRecord.setBuffer(myInputSplitBuffer);
+		currRecord.setStartKey(recordStart + 1);
+		currRecord.setEndKey(lineEnds[0] - 1);
+		currRecord.setStartValue(lineEnds[0] + 1);
+		currRecord.setEndValue(lineEnds[1] - 1);
+		currRecord.setStartKey2(lineEnds[1] + 2);
+		currRecord.setEndKey2(lineEnds[2] - 1);
+		currRecord.setStartQuality(lineEnds[2] + 1);
+		currRecord.setEndQuality(lineEnds[3] - 1);
+
+		return true;
+	}
+
+	/*
+	 * Parses the record starting at posBuffer into recordStart and lineEnds. If the record is not
+	 * entirely in the buffer and refill is set, the bytes not yet consumed are moved to the front of
+	 * the buffer and more of the stream is read, otherwise false is returned. The buffer grows only
+	 * if a single record does not fit in it. The records starting after the end of the split are left
+	 * to the next one, and only the last record of the file may miss the final newline. In the
+	 * chunked mode, the buffer is the current chunk.
+	 */
+	private boolean parseStreamingRecord(boolean refill) throws IOException {
+		while (true) {
+			int start = posBuffer;
+
+			while (start < sizeBuffer && myInputSplitBuffer[start] == '\n')
+				start++;
+
+			if (splitSize >= 0 && bufferOffset + start >= splitSize) {
+				posBuffer = sizeBuffer;
+				return false;
 			}
 
-			inputSplitBuffer = new byte[totalSize];
+			int lines = 0;
+
+			for (int p = start; lines < 4; lines++) {
+				int end = nextLineEnd(p);
 
-			int destPos = 0;
+				if (end < 0)
+					break;
 
-			for(int i=0; i<blocks.size(); i++){
-				System.arraycopy(blocks.get(i), 0, inputSplitBuffer, destPos, block_sizes.get(i));
-				destPos += block_sizes.get(i);
+				lineEnds[lines] = end;
+				p = end + 1;
 			}
 
-			return inputSplitBuffer;
+			// the end of the stream, past the split and its border, is the end of the file
+			if (lines == 3 && endOfStream && lineEnds[2] + 1 < sizeBuffer)
+				lineEnds[lines++] = sizeBuffer;
 
-		} catch (IOException e) {
-			return new byte[0];
-		} 
+			if (lines == 4) {
+				recordStart = start;
+				posBuffer = Math.min(lineEnds[3] + 1, sizeBuffer);
+				return true;
+			}
+
+			if (endOfStream) {
+				posBuffer = sizeBuffer;
+				return false;
+			}
+
+			if (!refill)
+				return false;
+
+			if (chunks != null)
+				nextChunk();
+			else
+				fillStreamingBuffer(start);
+
+			posBuffer = 0;
+		}
 	}
-	
-	private byte[] readCompressedSplit(CompressionCodec codec){
-		try {
-			cInputFile = codec.createInputStream(inputFile);
-			
-			if (startByte != 0)
-				inputFile.seek(startByte);
 
-			ArrayList<byte[]> blocks = new ArrayList<>();
-			ArrayList<Integer> block_sizes = new ArrayList<>();
+	/*
+	 * Keeps the bytes from keep_from on, at the front of the buffer, and fills the rest of it. Past
+	 * the end of the split, only a piece of the next one is read at a time, as far as the last
+	 * record of the split needs.
+	 */
+	private void fillStreamingBuffer(int keep_from) throws IOException {
+		if (keep_from == 0 && sizeBuffer == myInputSplitBuffer.length)
+			myInputSplitBuffer = Arrays.copyOf(myInputSplitBuffer, myInputSplitBuffer.length * 2);
+		else
+			System.arraycopy(myInputSplitBuffer, keep_from, myInputSplitBuffer, 0, sizeBuffer - keep_from);
+
+		bufferOffset += keep_from;
+		sizeBuffer -= keep_from;
 
-			int totalSize = 0;
+		while (sizeBuffer < myInputSplitBuffer.length) {
 			int readByte;
 
-			byte[] inputSplitBuffer;
+			if (splitSize < 0) {
+				readByte = source.read(myInputSplitBuffer, sizeBuffer, myInputSplitBuffer.length - sizeBuffer);
 
-			do{
-				byte[] buffer = new byte[BLOCK_BUFFER_SIZE];
+				if (readByte < 0) {
+					splitSize = bufferOffset + sizeBuffer;
+					continue;
+				}
+			}
+			else {
+				readByte = source.readBorder(myInputSplitBuffer, sizeBuffer, myInputSplitBuffer.length - sizeBuffer);
 
-				readByte = cInputFile.read(buffer, 0, BLOCK_BUFFER_SIZE);
+				if (readByte < 0)
+					endOfStream = true;
+				else
+					sizeBuffer += readByte;
 
-				if(readByte > 0){
-					totalSize += readByte;
-					blocks.add(Arrays.copyOf(buffer, readByte));
-					block_sizes.add(readByte);
-				}
-			} while(cInputFile.getPos() < endByte && readByte > 0);
+				break;
+			}
+
+			sizeBuffer += readByte;
+		}
+	}
 
-			inputSplitBuffer = new byte[totalSize];
+	/*
+	 * Returns the position of the first newline from p in the buffer, or -1
+	 */
+	private int nextLineEnd(int p) {
+		return ByteScanner.indexOf(myInputSplitBuffer, p, sizeBuffer, (byte) '\n');
+	}
+
+	/*
+	 * Grows the border buffer as much as the record crossing the end of the split needs
+	 */
+	private void ensureBorderCapacity(int capacity) {
+		if (capacity > borderBuffer.length) {
+			borderBuffer = CompressedSplitSource.ensureCapacity(borderBuffer, capacity);
+			currRecord.setBuffer(borderBuffer);
+		}
+	}
 
-			int destPos = 0;
+	private void putBorder(int pos, byte b) {
+		ensureBorderCapacity(pos + 1);
+		borderBuffer[pos] = b;
+	}
 
-			for(int i=0; i<blocks.size(); i++){
-				System.arraycopy(blocks.get(i), 0, inputSplitBuffer, destPos, block_sizes.get(i));
-				destPos += block_sizes.get(i);
-			}
+	private void openCompressedSplit(SplittableCompressionCodec codec) throws IOException {
+		source = new CompressedSplitSource(inputFile, codec, startByte, endByte, blockIndex, borderIndex);
+		startByte = source.getAdjustedStart();
+		endByte = source.getAdjustedEnd();
+	}
 
-			return inputSplitBuffer;
+	private byte[] readCompressedSplit(SplittableCompressionCodec codec){
+		try {
+			openCompressedSplit(codec);
+			return source.readSplit(BLOCK_BUFFER_SIZE, 0);
+		} catch (IOException e) {
+			return new byte[0];
+		} 
+	}
+	
+	private byte[] readCompressedSplit(CompressionCodec codec){
+		try {
+			source = new CompressedSplitSource(codec.createInputStream(inputFile), endByte);
+			
+			if (startByte != 0)
+				inputFile.seek(startByte);
 
+			return source.readSplit(BLOCK_BUFFER_SIZE, 0);
 		} catch (IOException e) {
 			return new byte[0];
 		} 
 	}
-}
\ No newline at end of file
+}
@@ -0,0 +1,21 @@
+package fastdoop.compression;
+
+import org.apache.hadoop.io.NullWritable;
+import org.apache.hadoop.mapreduce.InputSplit;
+import org.apache.hadoop.mapreduce.RecordReader;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+
+import universalcodec.UniversalInputFormat;
+
+/**
+ * Reads {@code .uc} FASTQ archives by batches of records, see {@link FASTQBatchRecordReader}. With
+ * Spark, it is used through {@code newAPIHadoopFile}, each element of the RDD being a batch.
+ */
+public class FASTQUniversalBatchInputFormat extends UniversalInputFormat<NullWritable, FASTQBatch> {
+
+	@Override
+	public RecordReader<NullWritable, FASTQBatch> createRecordReader(InputSplit split, TaskAttemptContext context) {
+
+		return new FASTQBatchRecordReader();
+	}
+}
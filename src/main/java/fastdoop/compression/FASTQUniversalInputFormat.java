@@ -13,6 +13,10 @@ public class FASTQUniversalInputFormat extends UniversalInputFormat<Text, QRecor
 	@Override
 	public RecordReader<Text, QRecord> createRecordReader(InputSplit split, TaskAttemptContext context) {
 		
+		// reads whose lines may be wrapped are parsed and returned in chunks
+		if (context.getConfiguration().getBoolean("uc.fastq.long.reads", false))
+			return new FASTQLongReadsRecordReader();
+
 		return new FASTQReadsRecordReader();
 	}
 }
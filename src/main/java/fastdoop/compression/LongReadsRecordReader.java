@@ -19,13 +19,11 @@
 package fastdoop.compression;
 
 import java.io.IOException;
-import java.util.ArrayList;
 
 import fastdoop.PartialSequence;
 import org.apache.hadoop.io.Text;
 import org.apache.hadoop.io.compress.CompressionCodec;
 import org.apache.hadoop.io.compress.CompressionCodecFactory;
-import org.apache.hadoop.io.compress.SplitCompressionInputStream;
 import org.apache.hadoop.io.compress.SplittableCompressionCodec;
 import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.fs.FSDataInputStream;
@@ -34,6 +32,8 @@ import org.apache.hadoop.mapreduce.*;
 import org.apache.hadoop.mapreduce.lib.input.*;
 
 import org.apache.hadoop.mapreduce.RecordReader;
+import splittablecodec.BlockIndex;
+import splittablecodec.CodecFileSplit;
 
 /**
  * This class reads {@literal <key, value>} pairs from an {@code InputSplit}.
@@ -66,7 +66,12 @@ public class LongReadsRecordReader extends RecordReader<Text, PartialSequence> {
 
 	private FSDataInputStream inputFile;
 	
-	private SplitCompressionInputStream cInputFile;
+	/*
+	 * The decompressed split, followed by the first block of the next split
+	 */
+	private CompressedSplitSource source;
+	private BlockIndex blockIndex;
+	private BlockIndex borderIndex;
 
 	private long startByte, endByte;
 
@@ -106,6 +111,8 @@ public class LongReadsRecordReader extends RecordReader<Text, PartialSequence> {
 		FileSplit split = (FileSplit) genericSplit;
 		Path path = split.getPath();
 		startByte = split.getStart();
+		blockIndex = split instanceof CodecFileSplit ? ((CodecFileSplit) split).getBlockIndex() : null;
+		borderIndex = split instanceof CodecFileSplit ? ((CodecFileSplit) split).getBorderIndex() : null;
 		endByte = startByte + split.getLength();
 		inputFile = path.getFileSystem(job).open(path);
 
@@ -151,7 +158,7 @@ public class LongReadsRecordReader extends RecordReader<Text, PartialSequence> {
 			sizeBuffer2 = inputFile.read((startByte + sizeBuffer1), myInputSplitBuffer, sizeBuffer1, otherbytesToReads);
 }
 		else if (codec instanceof SplittableCompressionCodec) { // compressed with BZ2
-			sizeBuffer2 =  cInputFile.read(myInputSplitBuffer, sizeBuffer1, otherbytesToReads);}
+			sizeBuffer2 = readBorder(myInputSplitBuffer, sizeBuffer1, otherbytesToReads);}
 		else try { throw new Exception("Codec not supported."); } 
 		catch(Exception e) {}
 		
@@ -174,14 +181,9 @@ public class LongReadsRecordReader extends RecordReader<Text, PartialSequence> {
 		 */
 		if (startByte == 0) {
 
-			for (int i = 0; i < sizeBuffer1; i++) {
+			int newLine = ByteScanner.indexOf(myInputSplitBuffer, 0, sizeBuffer1, (byte) '\n');
 
-				posBuffer++;
-
-				if (myInputSplitBuffer[posBuffer - 1] == '\n')
-					break;
-
-			}
+			posBuffer = newLine >= 0 ? newLine + 1 : sizeBuffer1;
 
 		}
 
@@ -237,6 +239,9 @@ public class LongReadsRecordReader extends RecordReader<Text, PartialSequence> {
 
 	@Override
 	public void close() throws IOException {// Close the record reader.
+		if (source != null)
+			source.close();
+
 		if (inputFile != null)
 			inputFile.close();
 	}
@@ -256,62 +261,28 @@ public class LongReadsRecordReader extends RecordReader<Text, PartialSequence> {
 		return endMyInputSplit ? 1 : 0;
 	}
 
-	private byte[] readCompressedSplit(SplittableCompressionCodec codec){
-		try {
-			cInputFile = codec.createInputStream(inputFile, codec.createDecompressor(), startByte, endByte, SplittableCompressionCodec.READ_MODE.BYBLOCK);
-			startByte = cInputFile.getAdjustedStart(); 
-			endByte = cInputFile.getAdjustedEnd();
-			
-			ArrayList<BlockBuffer> blocks = new ArrayList<BlockBuffer>();
-			int totalSize = 0;
-			int readByte= 0;
-			
-			byte[] inputSplitBuffer, blockBuff;
-			
-			while(cInputFile.getPos() < endByte){
-
-				blockBuff = new byte[BLOCK_BUFFER_SIZE];
-				readByte = cInputFile.read(blockBuff, 0, BLOCK_BUFFER_SIZE);
-
-				if(readByte > 0){
-					totalSize += readByte;
-					blocks.add(new BlockBuffer(blockBuff, readByte));
-				}
-			}
-			
-			int otherbytesToReads = k + 2;
-			inputSplitBuffer = new byte[totalSize + otherbytesToReads];
+	/*
+	 * Reads the first bytes after the end of the split, as far as available, returning their number
+	 */
+	private int readBorder(byte[] b, int off, int len) throws IOException {
+		int n = 0;
+		int readByte;
 
-			int destPos = 0;
+		while (n < len && (readByte = source.readBorder(b, off + n, len - n)) > 0)
+			n += readByte;
 
-			for(int i=0; i<blocks.size(); i++){
-				BlockBuffer b = blocks.get(i);
-				System.arraycopy(b.getBuffer(), 0, inputSplitBuffer, destPos, b.getLenght());
-				destPos += b.getLenght();
-			}
+		return n;
+	}
 
-			return inputSplitBuffer;
+	private byte[] readCompressedSplit(SplittableCompressionCodec codec){
+		try {
+			source = new CompressedSplitSource(inputFile, codec, startByte, endByte, blockIndex, borderIndex);
+			startByte = source.getAdjustedStart(); 
+			endByte = source.getAdjustedEnd();
 
+			return source.readSplit(BLOCK_BUFFER_SIZE, k + 2);
 		} catch (IOException e) {
 			return new byte[0];
 		} 
 	}
-	
-	private static class BlockBuffer {
-		private byte[] buffer;
-		private int lenght;
-		
-		public BlockBuffer(byte[] b, int l){
-			this.buffer=b;
-			this.lenght=l;
-		}
-
-		public byte[] getBuffer() {
-			return buffer;
-		}
-
-		public int getLenght() {
-			return lenght;
-		}
-	}
-}
\ No newline at end of file
+}
@@ -0,0 +1,26 @@
+package fastdoop.compression;
+
+import fastdoop.QRecord;
+
+/**
+ * The two mates of a paired-end read, as returned by {@link FASTQPairedRecordReader}. Both records
+ * are reused by the next call of the reader.
+ */
+public class QRecordPair {
+
+	private QRecord first;
+	private QRecord second;
+
+	void set(QRecord first, QRecord second) {
+		this.first = first;
+		this.second = second;
+	}
+
+	public QRecord getFirst() {
+		return first;
+	}
+
+	public QRecord getSecond() {
+		return second;
+	}
+}
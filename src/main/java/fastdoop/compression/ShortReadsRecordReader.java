@@ -21,15 +21,12 @@ package fastdoop.compression;
 import java.io.EOFException;
 import java.io.IOException;
 import java.util.ArrayList;
-import java.util.Arrays;
 
 import dsrc.DsrcCodec;
 import fastdoop.Record;
 import org.apache.hadoop.io.Text;
 import org.apache.hadoop.io.compress.CompressionCodec;
 import org.apache.hadoop.io.compress.CompressionCodecFactory;
-import org.apache.hadoop.io.compress.CompressionInputStream;
-import org.apache.hadoop.io.compress.SplitCompressionInputStream;
 import org.apache.hadoop.io.compress.SplittableCompressionCodec;
 import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.fs.FSDataInputStream;
@@ -37,6 +34,9 @@ import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.mapreduce.*;
 import org.apache.hadoop.mapreduce.lib.input.*;
 
+import splittablecodec.BlockIndex;
+import splittablecodec.BlockIndexedCodec;
+import splittablecodec.CodecFileSplit;
 import universalcodec.UniversalCodec;
 
 /**
@@ -71,9 +71,16 @@ public class ShortReadsRecordReader extends RecordReader<Text, Record> {
 	
 	final int BLOCK_BUFFER_SIZE = 20 * 1024 * 1024; // Max block size: LZ4=4MB, BZ2=900KB, ZSTD=128KB). Consider uncompressed size
 
+	final int CHUNK_SIZE = 64 * 1024 * 1024; // 64MB
+
 	private FSDataInputStream inputFile;
 	
-	private CompressionInputStream cInputFile;
+	/*
+	 * The decompressed split, followed by the first block of the next split
+	 */
+	private CompressedSplitSource source;
+	private BlockIndex blockIndex;
+	private BlockIndex borderIndex;
 
 	private long startByte, endByte;
 
@@ -107,6 +114,19 @@ public class ShortReadsRecordReader extends RecordReader<Text, Record> {
 	 */
 	private boolean endMyInputSplit = false;
 
+	/*
+	 * With uc.reader.chunked, the records of the decompressed split are kept in chunks ending on
+	 * record boundaries, so that it may exceed the size of a Java array, and each record lies in a
+	 * single chunk
+	 */
+	private ArrayList<byte[]> chunks;
+	private int chunkIndex;
+
+	/*
+	 * True if the split holds whole records only, as declared by the archive
+	 */
+	private boolean recordAligned;
+
 	public ShortReadsRecordReader() {
 		super();
 	}
@@ -127,6 +147,9 @@ public class ShortReadsRecordReader extends RecordReader<Text, Record> {
 		FileSplit split = (FileSplit) genericSplit;
 		Path path = split.getPath();
 		startByte = split.getStart();
+		blockIndex = split instanceof CodecFileSplit ? ((CodecFileSplit) split).getBlockIndex() : null;
+		recordAligned = split instanceof CodecFileSplit && ((CodecFileSplit) split).isRecordAligned();
+		borderIndex = split instanceof CodecFileSplit ? ((CodecFileSplit) split).getBorderIndex() : null;
 		endByte = startByte + split.getLength();
 		inputFile = path.getFileSystem(job).open(path);
 		// inputFile.seek(startByte);
@@ -161,8 +184,24 @@ public class ShortReadsRecordReader extends RecordReader<Text, Record> {
 			if (codec instanceof DsrcCodec) ((DsrcCodec) codec).setConf(job);
 			else if (codec instanceof UniversalCodec) ((UniversalCodec) codec).setConf(job);
 			inputFile.seek(startByte);
+
+			// the last record of the split is completed from the next block located by the index
+			if (job.getBoolean("uc.reader.chunked", false) && codec instanceof BlockIndexedCodec && blockIndex != null) {
+				initializeChunked((SplittableCompressionCodec) codec, job.getInt("uc.reader.chunk.size", CHUNK_SIZE));
+				return;
+			}
+
 			myInputSplitBuffer = readCompressedSplit((SplittableCompressionCodec) codec);
 			sizeBuffer = myInputSplitBuffer.length;
+
+			// parsed as a single chunk: no record to complete from the next split
+			if (recordAligned) {
+				chunks = new ArrayList<>();
+				chunks.add(myInputSplitBuffer);
+				chunkIndex = -1;
+				nextChunk();
+				return;
+			}
 		}
 		else { // compressed with LZ4, ZSTD (to check)
 			myInputSplitBuffer = readCompressedSplit(codec);
@@ -186,12 +225,10 @@ public class ShortReadsRecordReader extends RecordReader<Text, Record> {
 		 * symbol as we assume these characters
 		 * will be processed together with the previous split
 		 */
-		for (int i = 0; i < sizeBuffer; i++) {
-			if (myInputSplitBuffer[i] == '>') {
-				posBuffer = i + 1;
-				break;
-			}
-		}
+		int firstHeader = ByteScanner.indexOf(myInputSplitBuffer, 0, sizeBuffer, (byte) '>');
+
+		if (firstHeader >= 0)
+			posBuffer = firstHeader + 1;
 
 		if (posBuffer == 0) {
 			endMyInputSplit = true;
@@ -202,6 +239,9 @@ public class ShortReadsRecordReader extends RecordReader<Text, Record> {
 	@Override
 	public boolean nextKeyValue() throws IOException, InterruptedException {
 
+		if (chunks != null)
+			return nextChunkedRecord();
+
 		if (endMyInputSplit)
 			return false;
 
@@ -212,15 +252,14 @@ public class ShortReadsRecordReader extends RecordReader<Text, Record> {
 
 		/*
 		 * We look for the next short sequence my moving posBuffer until a
-		 * newline character is found.
-		 * End of split is implicitly managed through
-		 * ArrayIndexOutOfBoundsException handling
+		 * newline character or the end of the split is found
 		 */
-		try {
-			while (myInputSplitBuffer[posBuffer] != '\n') {
-				posBuffer++;
-			}
-		} catch (ArrayIndexOutOfBoundsException e) {
+		int newLine = ByteScanner.indexOf(myInputSplitBuffer, posBuffer, myInputSplitBuffer.length, (byte) '\n');
+
+		if (newLine >= 0)
+			posBuffer = newLine;
+		else {
+			posBuffer = Math.max(posBuffer, myInputSplitBuffer.length);
 
 			/*
 			 * If we reached the end of the split while scanning a sequence, we
@@ -241,15 +280,17 @@ public class ShortReadsRecordReader extends RecordReader<Text, Record> {
 			 */
 			currValue.setStartValue(posBuffer + 1);
 
-			try {
-				while (myInputSplitBuffer[posBuffer] != '>') {
-					posBuffer++;
-				}
+			int header = ByteScanner.indexOf(myInputSplitBuffer, posBuffer, myInputSplitBuffer.length, (byte) '>');
+
+			if (header >= 0) {
+				posBuffer = header;
 
 				currValue.setEndValue(posBuffer - 2);
 				posBuffer++;
 
-			} catch (ArrayIndexOutOfBoundsException e) {
+			} else {
+				posBuffer = Math.max(posBuffer, myInputSplitBuffer.length);
+
 				/*
 				 * If we reached the end of the split while scanning a sequence,
 				 * we use nextsplitValue to remember that more characters have
@@ -268,19 +309,8 @@ public class ShortReadsRecordReader extends RecordReader<Text, Record> {
 		 */
 		if (endMyInputSplit) {
 			
-			byte[] blockBuff = null;
-			int readByte = 0;
-			int posNewBuffer = 0;
-			
-			if (cInputFile != null) {
-				blockBuff = new byte[BLOCK_BUFFER_SIZE];
-				readByte = cInputFile.read(blockBuff, 0, BLOCK_BUFFER_SIZE);
-				if (readByte == 1){
-					int r = cInputFile.read(blockBuff, 1, BLOCK_BUFFER_SIZE);
-					if (r > 0)
-						readByte += r;
-				}
-			}
+			// the rest of the record is read from the next split, as far as needed
+			int nextByte = 0;
 
 			/*
 			 * First, we check if we reached the end of the HDFS file (not of
@@ -313,6 +343,7 @@ public class ShortReadsRecordReader extends RecordReader<Text, Record> {
 
 				int j = posBuffer - currValue.getStartKey();
 
+				ensureBorderCapacity(j);
 				System.arraycopy(myInputSplitBuffer, currValue.getStartKey(), borderBuffer, 0, j);
 
 				posBuffer = j;
@@ -322,20 +353,18 @@ public class ShortReadsRecordReader extends RecordReader<Text, Record> {
 
 				byte b;
 				
-				if (cInputFile == null) {// uncompressed file 
+				if (source == null) {// uncompressed file 
 					try {
 						
 						while ((b = inputFile.readByte()) != '\n')
-							borderBuffer[j++] = b;
+							putBorder(j++, b);
 						
 					} catch (EOFException e) {}
 				}
 				else {
-					while(posNewBuffer < readByte && (b = blockBuff[posNewBuffer++]) != '\n')
-						borderBuffer[j++]=b;
-
-					if(posNewBuffer == readByte)
-						return false;
+					// the header of the last record of the file may lack its newline
+					while ((nextByte = source.readBorderByte()) != -1 && nextByte != '\n')
+						putBorder(j++, (byte) nextByte);
 				}
 
 				if (!nextsplitValue)
@@ -356,6 +385,7 @@ public class ShortReadsRecordReader extends RecordReader<Text, Record> {
 					currValue.setBuffer(borderBuffer);
 
 					int j = currValue.getEndKey() + 1 - currValue.getStartKey();
+					ensureBorderCapacity(j);
 					System.arraycopy(myInputSplitBuffer, currValue.getStartKey(), borderBuffer, 0, j);
 
 					currValue.setStartKey(0);
@@ -364,6 +394,7 @@ public class ShortReadsRecordReader extends RecordReader<Text, Record> {
 					int start = currValue.getStartValue();
 					currValue.setStartValue(j);
 
+					ensureBorderCapacity(j + (currValue.getEndValue() + 1 - start));
 					if ((currValue.getEndValue() + 1 - start) > 0) // TODO VERIFICARE
 						System.arraycopy(myInputSplitBuffer, start, borderBuffer, j, (currValue.getEndValue() + 1 - start));
 					posBuffer = j + currValue.getEndValue() + 1 - start;
@@ -377,20 +408,21 @@ public class ShortReadsRecordReader extends RecordReader<Text, Record> {
 
 				byte b = 'a';
 
-				if (cInputFile == null) {// uncompressed file
+				if (source == null) {// uncompressed file
 					try {
 						
 						while ((b = inputFile.readByte()) != '>') 
-							borderBuffer[posBuffer++] = b;
+							putBorder(posBuffer++, b);
 						
 					} catch (EOFException e) {}
 				}
 				else {
-					while(posNewBuffer < readByte && (b = blockBuff[posNewBuffer++]) != '>') 
-						borderBuffer[posBuffer++] = b;
+					// the end of the file ends the last record, as the next header would
+					while ((nextByte = source.readBorderByte()) != -1 && nextByte != '>')
+						putBorder(posBuffer++, (byte) nextByte);
 
-					if(posNewBuffer == readByte)
-						return false;
+					if (nextByte != -1)
+						b = (byte) nextByte;
 				}
 				
 				if (b == '>')
@@ -420,12 +452,18 @@ public class ShortReadsRecordReader extends RecordReader<Text, Record> {
 
 	@Override
 	public float getProgress() throws IOException, InterruptedException {
+		if (chunks != null)
+			return chunks.isEmpty() ? 1 : (chunkIndex + (sizeBuffer > 0 ? posBuffer / (float) sizeBuffer : 1)) / chunks.size();
+
 		return sizeBuffer > 0 ? posBuffer / sizeBuffer : 1;
 	}
 
 	@Override
 	public void close() throws IOException {
 
+		if (source != null)
+			source.close();
+
 		if (inputFile != null)
 			inputFile.close();
 	}
@@ -440,44 +478,102 @@ public class ShortReadsRecordReader extends RecordReader<Text, Record> {
 		return currValue;
 	}
 	
-	private byte[] readCompressedSplit(SplittableCompressionCodec codec){
-		try {
-			cInputFile = codec.createInputStream(inputFile, codec.createDecompressor(), startByte, endByte, SplittableCompressionCodec.READ_MODE.BYBLOCK);
-			startByte = ((SplitCompressionInputStream) cInputFile).getAdjustedStart(); 
-			endByte = ((SplitCompressionInputStream) cInputFile).getAdjustedEnd();
-			
-			ArrayList<byte[]> blocks = new ArrayList<>();
-			ArrayList<Integer> block_sizes = new ArrayList<>();
+	/*
+	 * Decompresses the whole split into chunks of about chunk_size bytes, cut on record boundaries
+	 * as the blocks of the archive. As in the buffered mode, the first record starts at the first '>'
+	 * and the last one is completed from the next split
+	 */
+	private void initializeChunked(SplittableCompressionCodec codec, int chunk_size) throws IOException {
+		openCompressedSplit(codec);
 
-			int totalSize = 0;
-			int readByte;
-			
-			byte[] inputSplitBuffer;
-			
-			byte[] buffer = new byte[BLOCK_BUFFER_SIZE];
-			
-			while(cInputFile.getPos() < endByte){
-				
-				readByte = cInputFile.read(buffer, 0, BLOCK_BUFFER_SIZE);
+		chunks = source.readChunks((byte) '>', chunk_size, recordAligned);
 
-				if(readByte > 0){
-					totalSize += readByte;
-					blocks.add(Arrays.copyOf(buffer, readByte));
-					block_sizes.add(readByte);
-				}
-			}
-			
-			inputSplitBuffer = new byte[totalSize];
+		chunkIndex = -1;
+		nextChunk();
 
-			int destPos = 0;
+		posBuffer = ByteScanner.indexOf(myInputSplitBuffer, 0, sizeBuffer, (byte) '>');
 
-			for(int i=0; i<blocks.size(); i++){
-				System.arraycopy(blocks.get(i), 0, inputSplitBuffer, destPos, block_sizes.get(i));
-				destPos += block_sizes.get(i);
-			}
+		if (posBuffer < 0)
+			posBuffer = sizeBuffer;
+	}
 
-			return inputSplitBuffer;
+	/*
+	 * Moves to the next chunk, releasing the consumed one
+	 */
+	private boolean nextChunk() {
+		if (chunkIndex >= 0)
+			chunks.set(chunkIndex, null);
+
+		boolean more = chunkIndex + 1 < chunks.size();
+
+		myInputSplitBuffer = more ? chunks.get(++chunkIndex) : new byte[0];
+		sizeBuffer = myInputSplitBuffer.length;
+		posBuffer = 0;
+
+		return more;
+	}
+
+	/*
+	 * Parses the record starting at posBuffer: the header line and the lines up to the next one
+	 * starting with '>', or up to the end of the chunk
+	 */
+	private boolean nextChunkedRecord() {
+		while (posBuffer >= sizeBuffer)
+			if (!nextChunk())
+				return false;
+
+		int start = posBuffer;
+		int keyEnd = ByteScanner.indexOf(myInputSplitBuffer, start, sizeBuffer, (byte) '\n');
+
+		if (keyEnd < 0)
+			keyEnd = sizeBuffer;
 
+		int next = ByteScanner.indexOfLineStart(myInputSplitBuffer, Math.min(keyEnd + 1, sizeBuffer), sizeBuffer, (byte) '>');
+
+		if (next < 0)
+			next = sizeBuffer;
+
+		int valueEnd = next;
+
+		while (valueEnd > keyEnd && myInputSplitBuffer[valueEnd - 1] == '\n')
+			valueEnd--;
+
+		currValue.setBuffer(myInputSplitBuffer);
+		currValue.setStartKey(start + 1);
+		currValue.setEndKey(keyEnd - 1);
+		currValue.setStartValue(keyEnd + 1);
+		currValue.setEndValue(valueEnd - 1);
+
+		posBuffer = next;
+
+		return true;
+	}
+
+	/*
+	 * Grows the border buffer as much as the record crossing the end of the split needs
+	 */
+	private void ensureBorderCapacity(int capacity) {
+		if (capacity > borderBuffer.length) {
+			borderBuffer = CompressedSplitSource.ensureCapacity(borderBuffer, capacity);
+			currValue.setBuffer(borderBuffer);
+		}
+	}
+
+	private void putBorder(int pos, byte b) {
+		ensureBorderCapacity(pos + 1);
+		borderBuffer[pos] = b;
+	}
+
+	private void openCompressedSplit(SplittableCompressionCodec codec) throws IOException {
+		source = new CompressedSplitSource(inputFile, codec, startByte, endByte, blockIndex, borderIndex);
+		startByte = source.getAdjustedStart();
+		endByte = source.getAdjustedEnd();
+	}
+
+	private byte[] readCompressedSplit(SplittableCompressionCodec codec){
+		try {
+			openCompressedSplit(codec);
+			return source.readSplit(BLOCK_BUFFER_SIZE, 0);
 		} catch (IOException e) {
 			return new byte[0];
 		} 
@@ -485,42 +581,12 @@ public class ShortReadsRecordReader extends RecordReader<Text, Record> {
 	
 	private byte[] readCompressedSplit(CompressionCodec codec){
 		try {
-			cInputFile = codec.createInputStream(inputFile);
+			source = new CompressedSplitSource(codec.createInputStream(inputFile), endByte);
 			
 			if (startByte != 0)
 				inputFile.seek(startByte);
-			
-			ArrayList<byte[]> blocks = new ArrayList<>();
-			ArrayList<Integer> block_sizes = new ArrayList<>();
-
-			int totalSize = 0;
-			int readByte;
-			
-			byte[] inputSplitBuffer;
-
-			do{
-				byte[] buffer = new byte[BLOCK_BUFFER_SIZE];
-
-				readByte = cInputFile.read(buffer, 0, BLOCK_BUFFER_SIZE);
-
-				if(readByte > 0){
-					totalSize += readByte;
-					blocks.add(Arrays.copyOf(buffer, readByte));
-					block_sizes.add(readByte);
-				}
-			} while(cInputFile.getPos() < endByte && readByte > 0);
-			
-			inputSplitBuffer = new byte[totalSize];
-
-			int destPos = 0;
-
-			for(int i=0; i<blocks.size(); i++){
-				System.arraycopy(blocks.get(i), 0, inputSplitBuffer, destPos, block_sizes.get(i));
-				destPos += block_sizes.get(i);
-			}
-
-			return inputSplitBuffer;
 
+			return source.readSplit(BLOCK_BUFFER_SIZE, 0);
 		} catch (IOException e) {
 			return new byte[0];
 		} 
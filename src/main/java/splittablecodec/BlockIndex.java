@@ -0,0 +1,173 @@
+package splittablecodec;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.io.WritableUtils;
+
+/**
+ * The offsets and the sizes of the compressed blocks of an archive, or of a part of it, together
+ * with their uncompressed sizes when the archive format stores them.
+ * <p>
+ * {@code CodecInputFormat} builds the index of the whole archive from its footer and gives each
+ * split only the {@link #slice(long, long)} covering it, serialized in binary form together with
+ * the split, so that the tasks do not need to parse the block list of the whole archive.
+ *
+ * @see CodecFileSplit
+ */
+public class BlockIndex implements Writable {
+
+	private long[] offsets;
+	private int[] sizes;
+	private int[] uncompressed_sizes; // null if unknown
+
+	public BlockIndex() {
+		this(new long[0], new int[0], null);
+	}
+
+	public BlockIndex(long[] offsets, int[] sizes, int[] uncompressed_sizes) {
+		this.offsets = offsets;
+		this.sizes = sizes;
+		this.uncompressed_sizes = uncompressed_sizes;
+	}
+
+	/**
+	 * Builds the index of blocks stored one after the other from {@code start}.
+	 * {@code block_uncompressed_sizes} may be {@code null}.
+	 */
+	public static BlockIndex fromSizes(long start, Long[] block_sizes, Long[] block_uncompressed_sizes) {
+		long[] offsets = new long[block_sizes.length];
+
+		for (int i = 0; i < offsets.length; i++) {
+			offsets[i] = start;
+			start += block_sizes[i];
+		}
+
+		return fromOffsets(offsets, block_sizes, block_uncompressed_sizes);
+	}
+
+	/**
+	 * Builds the index of blocks stored at the given offsets, in increasing order.
+	 * {@code block_uncompressed_sizes} may be {@code null}.
+	 */
+	public static BlockIndex fromOffsets(long[] offsets, Long[] block_sizes, Long[] block_uncompressed_sizes) {
+		int[] sizes = new int[block_sizes.length];
+		int[] uncompressed_sizes = block_uncompressed_sizes == null ? null : new int[block_sizes.length];
+
+		for (int i = 0; i < sizes.length; i++) {
+			sizes[i] = (int) (long) block_sizes[i];
+
+			if (uncompressed_sizes != null)
+				uncompressed_sizes[i] = (int) (long) block_uncompressed_sizes[i];
+		}
+
+		return new BlockIndex(offsets, sizes, uncompressed_sizes);
+	}
+
+	public int size() {
+		return sizes.length;
+	}
+
+	public long getOffset(int i) {
+		return offsets[i];
+	}
+
+	public int getSize(int i) {
+		return sizes[i];
+	}
+
+	public boolean hasUncompressedSizes() {
+		return uncompressed_sizes != null;
+	}
+
+	public int getUncompressedSize(int i) {
+		return uncompressed_sizes[i];
+	}
+
+	/**
+	 * Returns the uncompressed size of all the blocks, or -1 if unknown.
+	 */
+	public long getUncompressedSize() {
+		if (uncompressed_sizes == null)
+			return -1;
+
+		long total = 0;
+
+		for (int size : uncompressed_sizes)
+			total += size;
+
+		return total;
+	}
+
+	public int getMaxSize() {
+		int max = 0;
+
+		for (int size : sizes)
+			max = Math.max(max, size);
+
+		return max;
+	}
+
+	/**
+	 * Returns the index of the blocks starting in [{@code start}, {@code end}).
+	 */
+	public BlockIndex slice(long start, long end) {
+		int from = firstBlockFrom(start);
+		int to = firstBlockFrom(end);
+
+		return new BlockIndex(Arrays.copyOfRange(offsets, from, to), Arrays.copyOfRange(sizes, from, to),
+				uncompressed_sizes == null ? null : Arrays.copyOfRange(uncompressed_sizes, from, to));
+	}
+
+	/*
+	 * Returns the position of the first block starting at or after offset
+	 */
+	private int firstBlockFrom(long offset) {
+		int i = Arrays.binarySearch(offsets, offset);
+
+		return i >= 0 ? i : -i - 1;
+	}
+
+	/*
+	 * Offsets are written as the gap from the end of the previous block, zero for contiguous blocks
+	 */
+	@Override
+	public void write(DataOutput out) throws IOException {
+		WritableUtils.writeVInt(out, sizes.length);
+		out.writeBoolean(uncompressed_sizes != null);
+
+		long end = 0;
+
+		for (int i = 0; i < sizes.length; i++) {
+			WritableUtils.writeVLong(out, offsets[i] - end);
+			WritableUtils.writeVInt(out, sizes[i]);
+			end = offsets[i] + sizes[i];
+
+			if (uncompressed_sizes != null)
+				WritableUtils.writeVInt(out, uncompressed_sizes[i]);
+		}
+	}
+
+	@Override
+	public void readFields(DataInput in) throws IOException {
+		int n = WritableUtils.readVInt(in);
+
+		offsets = new long[n];
+		sizes = new int[n];
+		uncompressed_sizes = in.readBoolean() ? new int[n] : null;
+
+		long end = 0;
+
+		for (int i = 0; i < n; i++) {
+			offsets[i] = end + WritableUtils.readVLong(in);
+			sizes[i] = WritableUtils.readVInt(in);
+			end = offsets[i] + sizes[i];
+
+			if (uncompressed_sizes != null)
+				uncompressed_sizes[i] = WritableUtils.readVInt(in);
+		}
+	}
+}
@@ -0,0 +1,19 @@
+package splittablecodec;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+import org.apache.hadoop.io.compress.Decompressor;
+import org.apache.hadoop.io.compress.SplitCompressionInputStream;
+import org.apache.hadoop.io.compress.SplittableCompressionCodec;
+
+/**
+ * A splittable codec whose streams read the blocks listed by a {@link BlockIndex}, as found in a
+ * {@link CodecFileSplit}. Only the splits planned by {@link CodecInputFormat} can be read: the
+ * streams asked without a block index fail with {@link CodecInputStream#missingBlockIndex()}.
+ */
+public interface BlockIndexedCodec extends SplittableCompressionCodec {
+
+	SplitCompressionInputStream createInputStream(InputStream in, Decompressor decompressor, long start, long end,
+												  BlockIndex block_index) throws IOException;
+}
@@ -0,0 +1,59 @@
+package splittablecodec;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+
+/**
+ * A per-JVM pool of heap {@code ByteBuffer}s used to hold compressed and uncompressed blocks, so that
+ * the buffers of hundreds of MB needed by big blocks are reused across blocks, decompressors and
+ * splits instead of being allocated (and collected) again every time.
+ * <p>
+ * {@link #acquire(int)} returns the smallest pooled buffer large enough, or a new one. At most
+ * {@code MAX_POOLED_BYTES} bytes of released buffers are kept, the others are left to the GC.
+ */
+public class BufferPool {
+
+	private static final long MAX_POOLED_BYTES = 512L * 1024 * 1024;
+
+	private static final ArrayList<ByteBuffer> pool = new ArrayList<>();
+	private static long pooled_bytes;
+
+	/**
+	 * Returns a cleared heap buffer whose capacity is at least {@code capacity} bytes.
+	 */
+	public static synchronized ByteBuffer acquire(int capacity) {
+		int best = -1;
+
+		for (int i = 0; i < pool.size(); i++) {
+			int c = pool.get(i).capacity();
+
+			if (c >= capacity && (best == -1 || c < pool.get(best).capacity()))
+				best = i;
+		}
+
+		if (best == -1)
+			return ByteBuffer.allocate(capacity);
+
+		ByteBuffer buffer = pool.remove(best);
+		pooled_bytes -= buffer.capacity();
+		buffer.clear();
+
+		return buffer;
+	}
+
+	/**
+	 * Gives back a buffer obtained from {@link #acquire(int)}. The buffer must not be used anymore.
+	 */
+	public static synchronized void release(ByteBuffer buffer) {
+		if (buffer == null || !buffer.hasArray() || pooled_bytes + buffer.capacity() > MAX_POOLED_BYTES)
+			return;
+
+		for (ByteBuffer pooled : pool)
+			if (pooled == buffer)
+				return;
+
+		buffer.clear();
+		pool.add(buffer);
+		pooled_bytes += buffer.capacity();
+	}
+}
@@ -19,15 +19,14 @@ public abstract class CodecCompressor implements Compressor {
 
 	public CodecCompressor(Configuration conf) {
 		compressed_buffer_size = Integer.parseInt(conf.get("compressed_buffer_size"));
-		uncompressed_buffer_size = conf.get("uncompressed_buffer_size") == null ? 20 * compressed_buffer_size : Integer.parseInt(conf.get("uncompressed_buffer_size"));
+		// without a configured size, the buffer for uncompressed data grows with the input
+		uncompressed_buffer_size = conf.get("uncompressed_buffer_size") == null ? compressed_buffer_size : Integer.parseInt(conf.get("uncompressed_buffer_size"));
 
-		uncompressed = ByteBuffer.allocate(uncompressed_buffer_size);
-		uncompressed.limit(uncompressed_buffer_size);
-		uncompressed.position(uncompressed_buffer_size);
+		uncompressed = BufferPool.acquire(uncompressed_buffer_size);
+		uncompressed.limit(0);
 		
-		compressed = ByteBuffer.allocate(compressed_buffer_size);
-		compressed.limit(compressed_buffer_size);
-		compressed.position(compressed_buffer_size);
+		compressed = BufferPool.acquire(compressed_buffer_size);
+		compressed.limit(0);
 	}
 
 	@Override
@@ -53,26 +52,27 @@ public abstract class CodecCompressor implements Compressor {
 	    
 	    // If there is no buffered data, decompress new available compressed data
 	    
-	    compressed.rewind();
-	    compressed.limit(compressed_buffer_size);
-	    
-	    byte[] input = new byte[uncompressed.remaining()];
-	    
 	    // long timeBash = 0;
 	    
 	    if (uncompressed.hasRemaining()) {
-	    	uncompressed.get(input);
-	    	bytesRead += input.length;
+	    	bytesRead += uncompressed.remaining();
 	    	
 	    	// long startBash = System.currentTimeMillis();
-	    	
-		    byte[] output = compress(input);
 
-	    	n = output.length;
+			ByteBuffer output = compress(uncompressed, compressed);
+			uncompressed.position(uncompressed.limit());
+
+			if (output == null)
+				throw new IOException("Block compression failed");
+
+			if (output != compressed) {
+				BufferPool.release(compressed);
+				compressed = output;
+			}
+
+	    	n = compressed.limit();
 			
 			// timeBash = System.currentTimeMillis() - startBash;
-		    
-	    	compressed.put(output, 0, n);
 	    }
 	    else {
 	    	n = 0;
@@ -92,9 +92,43 @@ public abstract class CodecCompressor implements Compressor {
 
 	protected abstract byte[] compress(byte[] input);
 
+	/**
+	 * Compresses the block between the position and the limit of {@code in}, writing the result
+	 * from the start of {@code out}. Returns the buffer holding the result, with position 0 and
+	 * limit set to the compressed size, or {@code null} on failure. If {@code out} is too small,
+	 * the result is returned in a larger buffer taken from {@link BufferPool}, while {@code out} is
+	 * left to the caller.
+	 * <p>
+	 * The default implementation relies on {@link #compress(byte[])}; codecs able to work on
+	 * buffers should override it, so that each byte is copied at most once.
+	 */
+	protected ByteBuffer compress(ByteBuffer in, ByteBuffer out) {
+		byte[] input = new byte[in.remaining()];
+		in.get(input);
+
+		byte[] output = compress(input);
+
+		if (output == null)
+			return null;
+
+		if (output.length > out.capacity())
+			out = BufferPool.acquire(output.length);
+
+		out.clear();
+		out.put(output);
+		out.flip();
+
+		return out;
+	}
+
 	@Override
 	public void end() {
-		// nop 
+		BufferPool.release(uncompressed);
+		BufferPool.release(compressed);
+
+		// the released buffers may be handed out again, so they must not be reachable from here
+		uncompressed = ByteBuffer.allocate(0);
+		compressed = ByteBuffer.allocate(0);
 	}
 
 	@Override
@@ -129,7 +163,9 @@ public abstract class CodecCompressor implements Compressor {
 
 	@Override
 	public void reset() {
-		// nop
+		uncompressed.limit(0);
+		compressed.limit(0);
+		bytesRead = bytesWritten = 0;
 	}
 
 	@Override
@@ -149,14 +185,16 @@ public abstract class CodecCompressor implements Compressor {
 	    /*if (len > uncompressed.limit())
 	    	throw new BufferOverflowException();*/
 	  
-	    uncompressed.limit(uncompressed_buffer_size);
-	    uncompressed.rewind();
+	    if (len > uncompressed.capacity()) {
+	    	BufferPool.release(uncompressed);
+	    	uncompressed = BufferPool.acquire(len);
+	    }
+
+	    uncompressed.clear();
 	    uncompressed.put(b, off, len);
-	    uncompressed.position(off);
-	    uncompressed.limit(off+len);
+	    uncompressed.flip();
 	    
-	    // Reinitialize output direct buffer.
-	    compressed.limit(compressed_buffer_size);
-	    compressed.position(compressed_buffer_size);
+	    // Reinitialize output buffer.
+	    compressed.limit(0);
 	}
 }
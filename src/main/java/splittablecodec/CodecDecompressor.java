@@ -8,21 +8,18 @@ import java.nio.ByteBuffer;
 
 public abstract class CodecDecompressor implements Decompressor {
 
-	private final int compressed_buffer_size;
-	private final int uncompressed_buffer_size;
+	private int compressed_buffer_size;
+	private int uncompressed_buffer_size;
 	private ByteBuffer uncompressed, compressed;
 
 	public CodecDecompressor(Configuration conf) {
-		compressed_buffer_size = Integer.parseInt(conf.get("compressed_buffer_size"));
-		uncompressed_buffer_size = conf.get("uncompressed_buffer_size") == null ? 20 * compressed_buffer_size : Integer.parseInt(conf.get("uncompressed_buffer_size"));
+		setBufferSizes(conf);
 
-		uncompressed = ByteBuffer.allocate(uncompressed_buffer_size);
-		uncompressed.limit(uncompressed_buffer_size);
-		uncompressed.position(uncompressed_buffer_size);
+		uncompressed = BufferPool.acquire(uncompressed_buffer_size);
+		uncompressed.limit(0);
 
-		compressed = ByteBuffer.allocate(compressed_buffer_size);
-	    compressed.limit(compressed_buffer_size);
-	    compressed.position(compressed_buffer_size);
+		compressed = BufferPool.acquire(compressed_buffer_size);
+	    compressed.limit(0);
 	}
 
 	@Override
@@ -47,25 +44,25 @@ public abstract class CodecDecompressor implements Decompressor {
 	    
 	    // If there is no buffered data, decompress new available compressed data
 	    
-	    uncompressed.rewind();
-	    uncompressed.limit(uncompressed_buffer_size);
-	    
 	    // long timeBash = 0;
 	    
 	    if (compressed.hasRemaining()) {
-		    byte[] input = new byte[compressed.remaining()];
-		    
-	    	compressed.get(input);
-			
 			// long startBash = System.currentTimeMillis();
-	    	
-		    byte[] output = decompress(input);
 
-		    n = output.length;
+			ByteBuffer output = decompress(compressed, uncompressed);
+			compressed.position(compressed.limit());
+
+			if (output == null)
+				throw new IOException("Block decompression failed");
+
+			if (output != uncompressed) {
+				BufferPool.release(uncompressed);
+				uncompressed = output;
+			}
+
+		    n = uncompressed.limit();
 
 			// timeBash = System.currentTimeMillis() - startBash;
-		    	
-	    	uncompressed.put(output, 0, n);
 	    }
 	    else {
 	    	n = 0;
@@ -82,11 +79,83 @@ public abstract class CodecDecompressor implements Decompressor {
 	    return n;
 	}
 
+	/**
+	 * Decompresses the block between the position and the limit of {@code in}, writing the result
+	 * from the start of {@code out}. Returns the buffer holding the result, with position 0 and
+	 * limit set to the uncompressed size, or {@code null} on failure. If {@code out} is too small,
+	 * the result is returned in a larger buffer taken from {@link BufferPool}, while {@code out} is
+	 * left to the caller.
+	 * <p>
+	 * The default implementation relies on {@link #decompress(byte[])}; codecs able to work on
+	 * buffers should override it, so that each byte is copied at most once.
+	 */
+	public ByteBuffer decompress(ByteBuffer in, ByteBuffer out) {
+		byte[] input = new byte[in.remaining()];
+		in.get(input);
+
+		byte[] output = decompress(input);
+
+		if (output == null)
+			return null;
+
+		if (output.length > out.capacity())
+			out = BufferPool.acquire(output.length);
+
+		out.clear();
+		out.put(output);
+		out.flip();
+
+		return out;
+	}
+
+	/**
+	 * Decompresses a whole block into a buffer taken from {@link BufferPool}, which the caller
+	 * should release once consumed.
+	 */
+	public ByteBuffer decompressBlock(ByteBuffer in) throws IOException {
+		ByteBuffer out = BufferPool.acquire(uncompressed_buffer_size);
+		ByteBuffer output = decompress(in, out);
+
+		if (output != out)
+			BufferPool.release(out);
+
+		if (output == null)
+			throw new IOException("Block decompression failed");
+
+		return output;
+	}
+
+	/**
+	 * Decompresses a whole block. With {@code uc.prefetch.blocks} or {@code uc.decompress.parallel},
+	 * {@code CodecInputStream} calls it from background threads, concurrently in the latter case,
+	 * so implementations must not keep state across calls.
+	 */
 	public abstract byte[] decompress(byte[] input);
 
+	/**
+	 * Prepares a decompressor taken from {@code CodecPool} for a new stream, possibly opened with a
+	 * different configuration. The buffers are kept: they grow on demand when bigger blocks come.
+	 * Subclasses depending on the configuration should override it, calling this implementation.
+	 */
+	public void reinit(Configuration conf) {
+		setBufferSizes(conf);
+		reset();
+	}
+
+	private void setBufferSizes(Configuration conf) {
+		compressed_buffer_size = Integer.parseInt(conf.get("compressed_buffer_size"));
+		// without a configured size, the buffer for uncompressed data grows with the blocks
+		uncompressed_buffer_size = conf.get("uncompressed_buffer_size") == null ? compressed_buffer_size : Integer.parseInt(conf.get("uncompressed_buffer_size"));
+	}
+
 	@Override
 	public void end() {
-		// nop
+		BufferPool.release(compressed);
+		BufferPool.release(uncompressed);
+
+		// the released buffers may be handed out again, so they must not be reachable from here
+		compressed = ByteBuffer.allocate(0);
+		uncompressed = ByteBuffer.allocate(0);
 	}
 
 	@Override
@@ -109,9 +178,14 @@ public abstract class CodecDecompressor implements Decompressor {
 		return !uncompressed.hasRemaining();
 	}
 
+	/**
+	 * Drops any pending compressed or uncompressed data, so that the decompressor can be recycled
+	 * by {@code CodecPool} without reallocating its buffers.
+	 */
 	@Override
 	public void reset() {
-		// nop
+		compressed.limit(0);
+		uncompressed.limit(0);
 	}
 
 	@Override
@@ -131,14 +205,16 @@ public abstract class CodecDecompressor implements Decompressor {
 	    /*if (len > compressed.limit())
 	    	throw new BufferOverflowException();*/
 	  
-	    compressed.limit(compressed_buffer_size);
-	    compressed.rewind();
+	    if (len > compressed.capacity()) {
+	    	BufferPool.release(compressed);
+	    	compressed = BufferPool.acquire(len);
+	    }
+
+	    compressed.clear();
 	    compressed.put(b, off, len);
-	    compressed.position(off);
-	    compressed.limit(off+len);
+	    compressed.flip();
 	    
-	    // Reinitialize output direct buffer.
-	    uncompressed.limit(uncompressed_buffer_size);
-	    uncompressed.position(uncompressed_buffer_size);
+	    // Reinitialize output buffer.
+	    uncompressed.limit(0);
 	}
 }
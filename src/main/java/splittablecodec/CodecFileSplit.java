@@ -0,0 +1,74 @@
+package splittablecodec;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.mapreduce.lib.input.FileSplit;
+
+/**
+ * A split of a block-compressed archive, carrying the index of the blocks it covers and whether
+ * they start and end on record boundaries. Splits of archives that are not record-aligned also
+ * carry the index of the first block of the next split, where their last record may end.
+ *
+ * @see CodecInputFormat
+ */
+public class CodecFileSplit extends FileSplit {
+
+	private BlockIndex block_index;
+	private BlockIndex border_index;
+	private boolean record_aligned;
+
+	public CodecFileSplit() {
+		block_index = new BlockIndex();
+		border_index = new BlockIndex();
+	}
+
+	public CodecFileSplit(Path file, long start, long length, String[] hosts, BlockIndex block_index) {
+		this(file, start, length, hosts, block_index, new BlockIndex(), false);
+	}
+
+	public CodecFileSplit(Path file, long start, long length, String[] hosts, BlockIndex block_index, BlockIndex border_index,
+						  boolean record_aligned) {
+		super(file, start, length, hosts);
+		this.block_index = block_index;
+		this.border_index = border_index;
+		this.record_aligned = record_aligned;
+	}
+
+	public BlockIndex getBlockIndex() {
+		return block_index;
+	}
+
+	/**
+	 * Returns the index of the first block after the split, empty if there is none or if it is not
+	 * needed.
+	 */
+	public BlockIndex getBorderIndex() {
+		return border_index;
+	}
+
+	/**
+	 * Returns {@code true} if the split starts with a record and ends with the end of a record.
+	 */
+	public boolean isRecordAligned() {
+		return record_aligned;
+	}
+
+	@Override
+	public void write(DataOutput out) throws IOException {
+		super.write(out);
+		block_index.write(out);
+		border_index.write(out);
+		out.writeBoolean(record_aligned);
+	}
+
+	@Override
+	public void readFields(DataInput in) throws IOException {
+		super.readFields(in);
+		block_index.readFields(in);
+		border_index.readFields(in);
+		record_aligned = in.readBoolean();
+	}
+}
@@ -4,74 +4,377 @@ import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.BlockLocation;
 import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.LocatedFileStatus;
 import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.mapreduce.InputSplit;
 import org.apache.hadoop.mapreduce.JobContext;
 import org.apache.hadoop.mapreduce.lib.input.FileInputFormat;
-import org.apache.hadoop.mapreduce.lib.input.FileSplit;
+import org.apache.hadoop.util.ReflectionUtils;
 
 import com.google.common.primitives.Ints;
 
 public abstract class CodecInputFormat<K, V> extends FileInputFormat<K, V>{
 
+	private static final int MAX_SPLIT_HOSTS = 3;
+
 	private byte[] parameters;
+	private String codec_name;
 	private Long[] block_sizes;
+	private long[] block_offsets;
+	private Long[] uncompressed_sizes;
+	private Long[] record_counts;
+	private boolean record_aligned;
 
 	@Override
 	public List<InputSplit> getSplits(JobContext job) throws IOException {
-		List<InputSplit> defaultSplits = super.getSplits(job);
+		Configuration conf = job.getConfiguration();
         List<InputSplit> codecSplits = new ArrayList<>();
-        
-        FileSplit split = (FileSplit) defaultSplits.get(0);
-		Path path = split.getPath();
-		
-		FSDataInputStream archive = path.getFileSystem(job.getConfiguration()).open(path);
-        long fileLen = path.getFileSystem(job.getConfiguration()).getFileStatus(path).getLen();
 
-		extractCodecInfo(archive, fileLen, job.getConfiguration());
-		
-		addCodecParameters(job.getConfiguration());
-		
-		long start_pos = getStartData(); // header_size
-		
-		int bs_index = 0;
-		
-		long split_size;
-		
-		for (InputSplit defaultSplit : defaultSplits) {
-			
-			try {
-				split_size = 0;
-				
-				while (bs_index < block_sizes.length && split_size <= defaultSplit.getLength())
-					split_size += block_sizes[bs_index++];		
-				
-				if (split_size == 0) break;	
-				
-				codecSplits.add(new FileSplit(path, start_pos, split_size, defaultSplit.getLocations()));
-				
-				start_pos += split_size;
-			
-			} catch (InterruptedException e) { e.printStackTrace(); }
+        List<FileStatus> files = listStatus(job);
+        List<FileStatus> mates = getMates(files, conf);
+        List<CodecInputFormat<K, V>> formats = readFooters(files, conf);
+        List<CodecInputFormat<K, V>> mate_formats = mates == null ? null : readFooters(mates, conf);
+
+		List<CodecInputFormat<K, V>> all_formats = new ArrayList<>(formats);
+
+		if (mate_formats != null)
+			all_formats.addAll(mate_formats);
+
+		addCodecParameters(conf, all_formats);
+
+		long min_size = Math.max(getFormatMinSplitSize(), getMinSplitSize(job));
+		long max_size = getMaxSplitSize(job);
+
+		// balanced splits need the record counts or the uncompressed sizes of the blocks in the footer
+		long target_records = conf.getLong("uc.split.target.records", 0);
+		long target_bytes = conf.getLong("uc.split.target.bytes", 0);
+
+		for (int f = 0; f < files.size(); f++) {
+			FileStatus file = files.get(f);
+			long split_size = computeSplitSize(file.getBlockSize(), min_size, max_size);
+
+			if (mates == null)
+				codecSplits.addAll(formats.get(f).getFileSplits(file, null, null, split_size, target_records, target_bytes, conf));
+			else
+				codecSplits.addAll(formats.get(f).getFileSplits(file, mates.get(f), mate_formats.get(f), split_size, target_records,
+						target_bytes, conf));
 		}
 		
-		if (codecSplits.isEmpty())
-			codecSplits = defaultSplits;
-		
         return codecSplits;
 	}
+
+	/**
+	 * Formats reading paired-end archives should return the path of the archive holding the mates of
+	 * the reads of {@code path}, compressed with the same blocks. The splits are then
+	 * {@link PairedFileSplit}s covering the same blocks of both archives.
+	 */
+	protected Path getMatePath(Path path, Configuration conf) throws IOException {
+		return null;
+	}
+
+	/*
+	 * Returns the status of the mate of each file, or null if the files are not paired
+	 */
+	private List<FileStatus> getMates(List<FileStatus> files, Configuration conf) throws IOException {
+		List<FileStatus> mates = new ArrayList<>();
+
+		for (FileStatus file : files) {
+			Path mate = getMatePath(file.getPath(), conf);
+
+			if (mate == null)
+				return null;
+
+			mates.add(mate.getFileSystem(conf).getFileStatus(mate));
+		}
+
+		return mates;
+	}
+
+	/*
+	 * Groups the compressed blocks of a file into splits, never cutting a block, and places each split
+	 * on the hosts storing most of its bytes. Splits hold about target_records records or target_bytes
+	 * uncompressed bytes when these targets are set and the footer has the needed information,
+	 * otherwise about split_size compressed bytes.
+	 * If the file has a mate, each split is paired with the split of the same blocks of the mate.
+	 */
+	private List<InputSplit> getFileSplits(FileStatus file, FileStatus mate, CodecInputFormat<K, V> mate_format,
+										   long split_size, long target_records, long target_bytes,
+										   Configuration conf) throws IOException {
+		List<InputSplit> codecSplits = new ArrayList<>();
+		Path path = file.getPath();
+
+		BlockLocation[] locations = getLocations(file, conf);
+		BlockIndex block_index = getBlockIndex();
+
+		BlockLocation[] mate_locations = mate == null ? null : getLocations(mate, conf);
+		BlockIndex mate_index = mate == null ? null : mate_format.getBlockIndex();
+
+		int nblocks = block_index.size();
+
+		if (mate != null && (mate_index.size() != nblocks || (record_counts != null && mate_format.record_counts != null
+				&& !Arrays.equals(record_counts, mate_format.record_counts))))
+			throw new IOException(path + " and " + mate.getPath() + " are not compressed with the same blocks");
+
+		boolean by_records = target_records > 0 && record_counts != null;
+		boolean by_bytes = !by_records && target_bytes > 0 && uncompressed_sizes != null
+				&& (mate == null || mate_format.uncompressed_sizes != null);
+		long target = by_records ? target_records : by_bytes ? target_bytes : split_size;
+
+		// a pair of reads is a single record, while the bytes of both archives are read
+		long[] weights = getBlockWeights(block_index, by_records, by_bytes);
+
+		if (mate != null && !by_records) {
+			long[] mate_weights = mate_format.getBlockWeights(mate_index, false, by_bytes);
+
+			for (int i = 0; i < nblocks; i++)
+				weights[i] += mate_weights[i];
+		}
+
+		// the work of blocks [i, j] is weight_end[j] - weight_start[i]
+		long[] weight_start = new long[nblocks];
+		long[] weight_end = new long[nblocks];
+
+		for (int i = 0; i < nblocks; i++) {
+			weight_start[i] = i == 0 ? 0 : weight_end[i-1];
+			weight_end[i] = weight_start[i] + weights[i];
+		}
+
+		int first = 0;
+
+		while (first < nblocks) {
+			int last = first + 1;
+
+			while (last < nblocks && weight_end[last] - weight_start[first] <= target)
+				last++;
+
+			Map<String, Long> host_bytes = new HashMap<>();
+			CodecFileSplit split = getBlocksSplit(path, block_index, first, last, locations, host_bytes);
+
+			if (mate == null)
+				codecSplits.add(split);
+			else {
+				CodecFileSplit mate_split = mate_format.getBlocksSplit(mate.getPath(), mate_index, first, last, mate_locations,
+						host_bytes);
+
+				codecSplits.add(new PairedFileSplit(split, mate_split, getTopHosts(host_bytes)));
+			}
+
+			first = last;
+		}
+
+		return codecSplits;
+	}
+
+	private BlockIndex getBlockIndex() {
+		return block_offsets == null ? BlockIndex.fromSizes(getStartData(), block_sizes, uncompressed_sizes)
+				: BlockIndex.fromOffsets(block_offsets, block_sizes, uncompressed_sizes);
+	}
+
+	private static BlockLocation[] getLocations(FileStatus file, Configuration conf) throws IOException {
+		return file instanceof LocatedFileStatus ? ((LocatedFileStatus) file).getBlockLocations()
+				: file.getPath().getFileSystem(conf).getFileBlockLocations(file, 0, file.getLen());
+	}
+
+	/*
+	 * Returns the records, the uncompressed bytes or the compressed bytes of each block. The
+	 * compressed bytes include the padding before the block, if any.
+	 */
+	private long[] getBlockWeights(BlockIndex block_index, boolean by_records, boolean by_bytes) {
+		long[] weights = new long[block_index.size()];
+
+		for (int i = 0; i < weights.length; i++)
+			if (by_records)
+				weights[i] = record_counts[i];
+			else if (by_bytes)
+				weights[i] = uncompressed_sizes[i];
+			else
+				weights[i] = block_index.getOffset(i) + block_index.getSize(i)
+						- (i == 0 ? block_index.getOffset(0) : block_index.getOffset(i-1) + block_index.getSize(i-1));
+
+		return weights;
+	}
+
+	/*
+	 * Returns the split of blocks [first, last), adding the bytes it has on each host to host_bytes
+	 */
+	private CodecFileSplit getBlocksSplit(Path path, BlockIndex block_index, int first, int last, BlockLocation[] locations,
+										  Map<String, Long> host_bytes) throws IOException {
+		long start_pos = block_index.getOffset(first);
+		long end_pos = block_index.getOffset(last - 1) + block_index.getSize(last - 1);
+
+		Map<String, Long> split_host_bytes = new HashMap<>();
+		addHostBytes(split_host_bytes, locations, start_pos, end_pos);
+		split_host_bytes.forEach((host, bytes) -> host_bytes.merge(host, bytes, Long::sum));
+
+		// the last record of a split may end in the first block of the next one
+		BlockIndex border_index = record_aligned || last == block_index.size() ? new BlockIndex()
+				: block_index.slice(block_index.getOffset(last), block_index.getOffset(last) + 1);
+
+		return new CodecFileSplit(path, start_pos, end_pos - start_pos, getTopHosts(split_host_bytes),
+				block_index.slice(start_pos, end_pos), border_index, record_aligned);
+	}
+
+	/*
+	 * Adds to host_bytes the bytes of [start, end) stored by each host
+	 */
+	private static void addHostBytes(Map<String, Long> host_bytes, BlockLocation[] locations, long start, long end)
+			throws IOException {
+		if (locations != null)
+			for (BlockLocation location : locations) {
+				long overlap = Math.min(end, location.getOffset() + location.getLength()) - Math.max(start, location.getOffset());
+
+				if (overlap > 0)
+					for (String host : location.getHosts())
+						host_bytes.merge(host, overlap, Long::sum);
+			}
+	}
+
+	/*
+	 * Returns the hosts storing the most bytes, by decreasing number of bytes
+	 */
+	private static String[] getTopHosts(Map<String, Long> host_bytes) {
+		List<Map.Entry<String, Long>> hosts = new ArrayList<>(host_bytes.entrySet());
+		hosts.sort((a, b) -> Long.compare(b.getValue(), a.getValue()));
+
+		String[] split_hosts = new String[Math.min(MAX_SPLIT_HOSTS, hosts.size())];
+
+		for (int i = 0; i < split_hosts.length; i++)
+			split_hosts[i] = hosts.get(i).getKey();
+
+		return split_hosts;
+	}
+
+	/*
+	 * Reads the header and the footer of each file, in parallel with uc.input.footer.threads threads
+	 * (by default, as many as those listing the input files). Each file gets its own instance of the
+	 * input format, holding the codec information of that file.
+	 */
+	private List<CodecInputFormat<K, V>> readFooters(List<FileStatus> files, Configuration conf) throws IOException {
+		int threads = conf.getInt("uc.input.footer.threads",
+				conf.getInt(FileInputFormat.LIST_STATUS_NUM_THREADS, FileInputFormat.DEFAULT_LIST_STATUS_NUM_THREADS));
+
+		ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, Math.min(threads, files.size())));
+		List<Future<CodecInputFormat<K, V>>> futures = new ArrayList<>();
+		List<CodecInputFormat<K, V>> formats = new ArrayList<>();
+
+		try {
+			for (FileStatus file : files)
+				futures.add(executor.submit(() -> readFooter(file, conf)));
+
+			for (Future<CodecInputFormat<K, V>> future : futures)
+				formats.add(future.get());
+		} catch (InterruptedException e) {
+			throw new IOException("Interrupted while reading the footers", e);
+		} catch (ExecutionException e) {
+			throw e.getCause() instanceof IOException ? (IOException) e.getCause() : new IOException(e.getCause());
+		} finally {
+			executor.shutdownNow();
+		}
+
+		return formats;
+	}
+
+	/*
+	 * Archives already planned by this JVM, or indexed by a sidecar file, are not opened
+	 */
+	@SuppressWarnings("unchecked")
+	private CodecInputFormat<K, V> readFooter(FileStatus file, Configuration conf) throws IOException {
+		CodecInputFormat<K, V> format = ReflectionUtils.newInstance(getClass(), conf);
+		FooterCache.Entry entry = FooterCache.get(getClass(), file, conf);
+
+		if (entry != null) {
+			format.setCodecInfo(entry);
+			format.restoreCodecInfo(conf);
+
+			return format;
+		}
+
+		Path path = file.getPath();
+		FileSystem fs = path.getFileSystem(conf);
+
+		try (FSDataInputStream archive = fs.open(path)) {
+			format.extractCodecInfo(archive, file.getLen(), conf);
+		}
+
+		FooterCache.put(getClass(), file, format.getCodecInfo(), conf);
+
+		return format;
+	}
+
+	private FooterCache.Entry getCodecInfo() {
+		FooterCache.Entry entry = new FooterCache.Entry();
+
+		entry.codec_name = codec_name;
+		entry.parameters = parameters;
+		entry.block_sizes = block_sizes;
+		entry.block_offsets = block_offsets;
+		entry.uncompressed_sizes = uncompressed_sizes;
+		entry.record_counts = record_counts;
+		entry.record_aligned = record_aligned;
+
+		return entry;
+	}
+
+	private void setCodecInfo(FooterCache.Entry entry) {
+		codec_name = entry.codec_name;
+		parameters = entry.parameters;
+		block_sizes = entry.block_sizes;
+		block_offsets = entry.block_offsets;
+		uncompressed_sizes = entry.uncompressed_sizes;
+		record_counts = entry.record_counts;
+		record_aligned = entry.record_aligned;
+	}
 	
 	abstract public int getStartData();
+
+	/**
+	 * Reads the codec information of an archive. When many files are read, it is called concurrently
+	 * on distinct instances sharing the same {@code Configuration}.
+	 */
 	abstract public void extractCodecInfo(FSDataInputStream archive, long fileLen, Configuration configuration) throws IOException;
+
+	/**
+	 * Called instead of {@link #extractCodecInfo} when the codec information of an archive comes from
+	 * the footer cache, to repeat any change that method makes to the configuration.
+	 */
+	public void restoreCodecInfo(Configuration configuration) throws IOException {
+		// nop
+	}
 	
-	private void addCodecParameters(Configuration configuration) {
-		configuration.set("compressed_buffer_size", Collections.max(Arrays.asList(getBlocksizes())).toString());
-		configuration.set("blocksizes", Arrays.toString(getBlocksizes()));
-		configuration.setLong("header_size", getStartData());
+	/*
+	 * The files of a job must share the codec and its parameters, passed to the tasks by the configuration
+	 */
+	private void addCodecParameters(Configuration configuration, List<CodecInputFormat<K, V>> formats) throws IOException {
+		long compressed_buffer_size = 0;
+
+		for (CodecInputFormat<K, V> format : formats) {
+			if (!Objects.equals(format.codec_name, formats.get(0).codec_name) || !Arrays.equals(format.parameters, formats.get(0).parameters))
+				throw new IOException("Input files compressed with different codecs or parameters are not supported");
+
+			if (format.getBlocksizes().length > 0)
+				compressed_buffer_size = Math.max(compressed_buffer_size, Collections.max(Arrays.asList(format.getBlocksizes())));
+		}
+
+		if (formats.isEmpty())
+			return;
+
+		configuration.set("compressed_buffer_size", Long.toString(compressed_buffer_size));
+
+		byte[] parameters = formats.get(0).parameters;
 
 		if (parameters != null) {
 			String[] params = new String[parameters.length];
@@ -97,6 +400,55 @@ public abstract class CodecInputFormat<K, V> extends FileInputFormat<K, V>{
 				block_sizes[b] = (long) Ints.fromBytes(array[4*b+(start+3)], array[4*b+(start+2)], array[4*b+(start+1)], array[4*b+start]);
 	}
 
+	public void setBlockSizes(Long[] block_sizes) {
+		this.block_sizes = block_sizes;
+	}
+
+	/**
+	 * Formats that may leave gaps between the blocks, e.g. to align them to the HDFS blocks, should
+	 * set their offsets in {@link #extractCodecInfo}. Otherwise, the blocks are assumed to be stored
+	 * one after the other from {@link #getStartData()}.
+	 */
+	public void setBlockOffsets(long[] block_offsets) {
+		this.block_offsets = block_offsets;
+	}
+
+	/**
+	 * Formats storing the uncompressed size of each block should set them in {@link #extractCodecInfo},
+	 * so that the readers can presize their buffers.
+	 */
+	public void setUncompressedSizes(Long[] uncompressed_sizes) {
+		this.uncompressed_sizes = uncompressed_sizes;
+	}
+
+	/**
+	 * Formats able to tell the codec of each archive should set it in {@link #extractCodecInfo},
+	 * so that input files compressed with different codecs are rejected.
+	 */
+	public void setCodecName(String codec_name) {
+		this.codec_name = codec_name;
+	}
+
+	/**
+	 * Formats storing the number of records of each block should set them in {@link #extractCodecInfo},
+	 * so that the splits can be balanced by {@code uc.split.target.records}.
+	 */
+	public void setRecordCounts(Long[] record_counts) {
+		this.record_counts = record_counts;
+	}
+
+	public String getCodecName() {
+		return codec_name;
+	}
+
+	/**
+	 * Formats whose blocks start and end on record boundaries should declare it in
+	 * {@link #extractCodecInfo}, so that the readers parse each split on its own.
+	 */
+	public void setRecordAligned(boolean record_aligned) {
+		this.record_aligned = record_aligned;
+	}
+
 	public void setParameters(byte[] parameters) {
 		this.parameters = parameters;
 	}
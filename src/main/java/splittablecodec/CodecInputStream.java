@@ -2,12 +2,27 @@ package splittablecodec;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
 import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.PositionedReadable;
+import org.apache.hadoop.fs.Seekable;
+import org.apache.hadoop.io.IOUtils;
 import org.apache.hadoop.io.compress.Decompressor;
 import org.apache.hadoop.io.compress.SplitCompressionInputStream;
+import org.apache.hadoop.mapreduce.MRJobConfig;
 
 public class CodecInputStream extends SplitCompressionInputStream {
+
+	private static final Log LOG = LogFactory.getLog(CodecInputStream.class);
 	
 	private int idx_block_size;
 	private Decompressor decompressor;
@@ -16,35 +31,91 @@ public class CodecInputStream extends SplitCompressionInputStream {
 	private long[] block_sizes_split;
 	private int num_blocks_split;
 	
-	private byte[] compressed_block_buffer;
-	
-	public CodecInputStream(InputStream in, Decompressor decompressor, long start, long end, Configuration conf) throws IOException {
+	private ByteBuffer compressed_block_buffer;
+
+	// position of the underlying stream when read sequentially, to skip the gaps between the blocks
+	private long stream_pos;
+	private boolean end_of_split;
+
+	/*
+	 * Read-ahead of the next blocks of the split (uc.prefetch.blocks > 0 or uc.decompress.parallel)
+	 */
+	private ExecutorService prefetcher;
+	private int prefetch_blocks;
+	private final ArrayDeque<Future<ByteBuffer>> prefetched = new ArrayDeque<>();
+	private long[] block_offsets_split;
+	private int idx_prefetch;
+	private ByteBuffer current_block;
+
+	/**
+	 * The blocks of a split are located only by the {@link BlockIndex} of the {@link CodecFileSplit}
+	 * planned by {@link CodecInputFormat}: the streams asked to the codecs without it fail with this
+	 * exception, before taking any decompressor.
+	 */
+	public static IOException missingBlockIndex() {
+		return new IOException("Missing block index: splits of compressed archives must be CodecFileSplit");
+	}
+
+	/**
+	 * Reads the blocks of {@code block_index} starting in [{@code start}, {@code end}).
+	 */
+	public CodecInputStream(InputStream in, Decompressor decompressor, long start, long end, BlockIndex block_index,
+							Configuration conf) throws IOException {
 		super(in, start, end);
-		compressed_block_buffer = new byte[Integer.parseInt(conf.get("compressed_buffer_size"))];
+
+		if (block_index == null)
+			throw missingBlockIndex();
+
 		pos = start;
+		stream_pos = start;
 		this.decompressor = decompressor;
-		
-		String[] blocksizes_strings = conf.get("blocksizes").substring(1, conf.get("blocksizes").length()-1).split(", ");
-		long[] blocksizes = new long[blocksizes_strings.length];
-		
-		for (int i = 0; i < blocksizes.length; i++)
-			blocksizes[i] = Long.parseLong(blocksizes_strings[i]);
-		
-		long block_start = conf.getLong("header_size", 0);
-		block_sizes_split = new long[blocksizes.length];
-		int i = 0;
-		
-		while(block_start < end) {
-			
-			if (block_start >= start)
-				block_sizes_split[num_blocks_split++] = blocksizes[i];
-			
-			block_start += blocksizes[i++];
+
+		// a recycled decompressor may come from a stream opened with another configuration
+		if (decompressor instanceof CodecDecompressor)
+			((CodecDecompressor) decompressor).reinit(conf);
+		else
+			decompressor.reset();
+
+		BlockIndex blocks = block_index.slice(start, end);
+		num_blocks_split = blocks.size();
+		block_sizes_split = new long[num_blocks_split];
+		block_offsets_split = new long[num_blocks_split];
+
+		for (int i = 0; i < num_blocks_split; i++) {
+			block_offsets_split[i] = blocks.getOffset(i);
+			block_sizes_split[i] = blocks.getSize(i);
 		}
 
+		// sized on the largest block of the split rather than on the largest of the archive
+		compressed_block_buffer = BufferPool.acquire(Math.max(1, blocks.getMaxSize()));
+
+		prefetch_blocks = conf.getInt("uc.prefetch.blocks", 0);
+
+		// with parallel decompression, the blocks of the split are decompressed concurrently
+		// by as many threads as the vcores of the container and consumed in order
+		int threads = 1;
+
+		if (conf.getBoolean("uc.decompress.parallel", false)) {
+			threads = Math.max(1, conf.getInt("uc.decompress.threads",
+					conf.getInt(MRJobConfig.MAP_CPU_VCORES, MRJobConfig.DEFAULT_MAP_CPU_VCORES)));
+			prefetch_blocks = Math.max(prefetch_blocks, threads);
+		}
+
+		// read-ahead needs a decompressor exposing the block-level decompression
+		if (prefetch_blocks > 0 && decompressor instanceof CodecDecompressor)
+			prefetcher = Executors.newFixedThreadPool(Math.min(threads, prefetch_blocks), runnable -> {
+				Thread thread = new Thread(runnable, "uc-prefetch");
+				thread.setDaemon(true);
+				return thread;
+			});
+		else if (prefetch_blocks > 0)
+			LOG.warn("uc.prefetch.blocks and uc.decompress.parallel are not supported by "
+					+ decompressor.getClass().getSimpleName() + ": the blocks are decompressed sequentially");
+
+		// only the archives of the native codecs have parameters, otherwise the array is empty
 		int[] params = conf.getInts("parameters");
 
-		if (params != null) {
+		if (params.length > 0) {
 			byte[] parameters = new byte[params.length];
 
 			for (int j=0; j < parameters.length; j++)
@@ -57,32 +128,145 @@ public class CodecInputStream extends SplitCompressionInputStream {
 	@Override
 	public int read(byte[] b, int off, int len) throws IOException {	
 		
+		if (prefetcher != null)
+			return readPrefetched(b, off, len);
+
 		int n = 0;
         while ((n = decompressor.decompress(b, off, len)) == 0) {
             if (decompressor.finished() && idx_block_size >= num_blocks_split) {
-            	pos += block_sizes_split[idx_block_size-1];
+            	// blocks read by offset leave the underlying stream where it was
+            	endOfSplit(in instanceof PositionedReadable);
+
             	return -1;
             }
 
             if (decompressor.needsInput()) {
-            	int requested_bytes = (int) block_sizes_split[idx_block_size];
-            	int offset = 0;
-            	int m;
-            	
-            	while (requested_bytes > 0) {
-            		m = in.read(compressed_block_buffer, offset, requested_bytes);
-            		requested_bytes -= m;
-            		offset += m;
-            	}
+            	int size = (int) block_sizes_split[idx_block_size];
+
+            	// only the byte ranges of the blocks of the split are read
+            	if (in instanceof PositionedReadable)
+            		((PositionedReadable) in).readFully(block_offsets_split[idx_block_size], compressed_block_buffer.array(), 0, size);
+            	else
+            		readSequentially(idx_block_size, compressed_block_buffer.array());
             	
-            	pos += idx_block_size == 0 ? 0 : block_sizes_split[idx_block_size-1];
-                decompressor.setInput(compressed_block_buffer, 0, (int) block_sizes_split[idx_block_size++]);
+            	pos = block_offsets_split[idx_block_size];
+                decompressor.setInput(compressed_block_buffer.array(), 0, (int) block_sizes_split[idx_block_size++]);
             }
         }
 		
 		return n;
 	}
 	
+	/*
+	 * Returns the bytes of the blocks fetched and decompressed in background, keeping the same
+	 * position semantics of the sequential read: pos is the offset of the block being consumed
+	 */
+	private int readPrefetched(byte[] b, int off, int len) throws IOException {
+		while (current_block == null || !current_block.hasRemaining()) {
+			// the consumed block goes back to the pool for the next ones
+			BufferPool.release(current_block);
+			current_block = null;
+
+			fillPrefetchQueue();
+
+			if (prefetched.isEmpty()) {
+				endOfSplit(true);
+
+				return -1;
+			}
+
+			pos = block_offsets_split[idx_block_size];
+
+			try {
+				current_block = prefetched.poll().get();
+			} catch (InterruptedException | ExecutionException e) {
+				throw new IOException("Block decompression failed", e);
+			}
+
+			if (current_block == null)
+				throw new IOException("Block decompression failed");
+
+			idx_block_size++;
+		}
+
+		int n = Math.min(len, current_block.remaining());
+		current_block.get(b, off, n);
+
+		return n;
+	}
+
+	/*
+	 * Keeps up to prefetch_blocks blocks being fetched or waiting to be consumed
+	 */
+	private void fillPrefetchQueue() throws IOException {
+		CodecDecompressor codec_decompressor = (CodecDecompressor) decompressor;
+
+		while (prefetched.size() < prefetch_blocks && idx_prefetch < num_blocks_split) {
+			int size = (int) block_sizes_split[idx_prefetch];
+			long offset = block_offsets_split[idx_prefetch++];
+			Callable<ByteBuffer> task;
+
+			if (in instanceof PositionedReadable)
+				task = () -> {
+					ByteBuffer compressed = BufferPool.acquire(size);
+
+					try {
+						((PositionedReadable) in).readFully(offset, compressed.array(), 0, size);
+						compressed.limit(size);
+						return codec_decompressor.decompressBlock(compressed);
+					} finally {
+						BufferPool.release(compressed);
+					}
+				};
+			else {
+				// streams without positioned reads are read in order by the consumer
+				ByteBuffer compressed = BufferPool.acquire(size);
+				readSequentially(idx_prefetch - 1, compressed.array());
+				compressed.limit(size);
+
+				task = () -> {
+					try {
+						return codec_decompressor.decompressBlock(compressed);
+					} finally {
+						BufferPool.release(compressed);
+					}
+				};
+			}
+
+			prefetched.add(prefetcher.submit(task));
+		}
+
+		// let the background thread end once the last block has been submitted
+		if (idx_prefetch == num_blocks_split)
+			prefetcher.shutdown();
+	}
+
+	/*
+	 * Reads block i from a stream without positioned reads, skipping the padding before it
+	 */
+	private void readSequentially(int i, byte[] buffer) throws IOException {
+		if (block_offsets_split[i] > stream_pos)
+			IOUtils.skipFully(in, block_offsets_split[i] - stream_pos);
+
+		IOUtils.readFully(in, buffer, 0, (int) block_sizes_split[i]);
+		stream_pos = block_offsets_split[i] + block_sizes_split[i];
+	}
+
+	/*
+	 * Moves the position to the end of the last block of the split, and the underlying stream too
+	 * if requested
+	 */
+	private void endOfSplit(boolean seek) throws IOException {
+		if (end_of_split || num_blocks_split == 0)
+			return;
+
+		pos = block_offsets_split[num_blocks_split-1] + block_sizes_split[num_blocks_split-1];
+		end_of_split = true;
+
+		if (seek && in instanceof Seekable)
+			((Seekable) in).seek(pos);
+	}
+
 	@Override
 	public long getPos() throws IOException {
 		return pos;
@@ -100,4 +284,18 @@ public class CodecInputStream extends SplitCompressionInputStream {
 	public void resetState() throws IOException {
 		// nop
 	}
+
+	@Override
+	public void close() throws IOException {
+		if (prefetcher != null)
+			prefetcher.shutdownNow();
+
+		BufferPool.release(current_block);
+		current_block = null;
+
+		BufferPool.release(compressed_block_buffer);
+		compressed_block_buffer = null;
+
+		super.close();
+	}
 }
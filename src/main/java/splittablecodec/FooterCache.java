@@ -0,0 +1,255 @@
+package splittablecodec;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileContext;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Options;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.io.WritableUtils;
+
+/**
+ * Caches the codec information parsed from the header and the footer of the archives, so that jobs
+ * reading the same files again plan their splits without opening them.
+ * <p>
+ * Entries are keyed by input format, path, length and modification time, so a rewritten archive is
+ * never served stale information. They are kept in memory, at most {@code uc.footer.cache.entries}
+ * of them, and with {@code uc.index.sidecar} also in a hidden {@code .<archive>.ucidx} file next to
+ * each archive, shared by all the jobs and clients reading it.
+ *
+ * @see CodecInputFormat
+ */
+class FooterCache {
+
+	private static final Log LOG = LogFactory.getLog(FooterCache.class);
+
+	static final String SIDECAR_EXT = ".ucidx";
+
+	private static final int SIDECAR_VERSION = 2;
+	private static final int DEFAULT_MAX_ENTRIES = 1024;
+
+	private static int max_entries = DEFAULT_MAX_ENTRIES;
+
+	private static final Map<String, Entry> cache = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+			return size() > max_entries;
+		}
+	};
+
+	/**
+	 * Returns the cached information of the archive, or {@code null} if it is not cached.
+	 */
+	static Entry get(Class<?> format, FileStatus file, Configuration conf) {
+		String key = key(format, file);
+
+		synchronized (cache) {
+			max_entries = conf.getInt("uc.footer.cache.entries", DEFAULT_MAX_ENTRIES);
+
+			Entry entry = cache.get(key);
+
+			if (entry != null)
+				return entry;
+		}
+
+		if (!conf.getBoolean("uc.index.sidecar", false))
+			return null;
+
+		Entry entry = readSidecar(format, file, conf);
+
+		if (entry != null)
+			synchronized (cache) {
+				cache.put(key, entry);
+			}
+
+		return entry;
+	}
+
+	static void put(Class<?> format, FileStatus file, Entry entry, Configuration conf) {
+		synchronized (cache) {
+			max_entries = conf.getInt("uc.footer.cache.entries", DEFAULT_MAX_ENTRIES);
+			cache.put(key(format, file), entry);
+		}
+
+		if (conf.getBoolean("uc.index.sidecar", false))
+			writeSidecar(format, file, entry, conf);
+	}
+
+	private static String key(Class<?> format, FileStatus file) {
+		return format.getName() + '|' + file.getPath() + '|' + file.getLen() + '|' + file.getModificationTime();
+	}
+
+	static Path sidecarPath(Path archive) {
+		return new Path(archive.getParent(), "." + archive.getName() + SIDECAR_EXT);
+	}
+
+	/*
+	 * A missing, unreadable or outdated sidecar is ignored, and the footer parsed again
+	 */
+	private static Entry readSidecar(Class<?> format, FileStatus file, Configuration conf) {
+		Path sidecar = sidecarPath(file.getPath());
+
+		try {
+			FileSystem fs = sidecar.getFileSystem(conf);
+
+			if (!fs.exists(sidecar))
+				return null;
+
+			try (FSDataInputStream in = fs.open(sidecar)) {
+				if (WritableUtils.readVInt(in) != SIDECAR_VERSION || !in.readUTF().equals(format.getName())
+						|| in.readLong() != file.getLen() || in.readLong() != file.getModificationTime())
+					return null;
+
+				Entry entry = new Entry();
+				entry.readFields(in);
+
+				return entry;
+			}
+		} catch (IOException e) {
+			return null;
+		}
+	}
+
+	/*
+	 * The sidecar is only an optimization, so archives in read-only directories are read without it
+	 */
+	private static void writeSidecar(Class<?> format, FileStatus file, Entry entry, Configuration conf) {
+		Path sidecar = sidecarPath(file.getPath());
+		Path tmp = new Path(sidecar.getParent(), sidecar.getName() + "." + System.nanoTime() + ".tmp");
+
+		try {
+			FileSystem fs = sidecar.getFileSystem(conf);
+
+			try (FSDataOutputStream out = fs.create(tmp, true)) {
+				WritableUtils.writeVInt(out, SIDECAR_VERSION);
+				out.writeUTF(format.getName());
+				out.writeLong(file.getLen());
+				out.writeLong(file.getModificationTime());
+				entry.write(out);
+			}
+
+			// concurrent planners may race to write the same sidecar, with the same content
+			if (!replace(fs, tmp, sidecar, conf))
+				fs.delete(tmp, false);
+		} catch (IOException e) {
+			LOG.debug("Cannot write the index " + sidecar, e);
+		}
+	}
+
+	/*
+	 * Renames tmp over target, so that readers always find one of the sidecars. File systems without
+	 * an atomic overwrite leave a short window without it.
+	 */
+	private static boolean replace(FileSystem fs, Path tmp, Path target, Configuration conf) throws IOException {
+		try {
+			FileContext.getFileContext(fs.getUri(), conf).rename(tmp, target, Options.Rename.OVERWRITE);
+			return true;
+		} catch (IOException | UnsupportedOperationException e) {
+			fs.delete(target, false);
+			return fs.rename(tmp, target);
+		}
+	}
+
+	/**
+	 * The codec information of an archive, as set by {@link CodecInputFormat#extractCodecInfo}.
+	 */
+	static class Entry implements Writable {
+
+		String codec_name;
+		byte[] parameters;
+		Long[] block_sizes;
+		long[] block_offsets;
+		Long[] uncompressed_sizes;
+		Long[] record_counts;
+		boolean record_aligned;
+
+		@Override
+		public void write(DataOutput out) throws IOException {
+			out.writeBoolean(codec_name != null);
+
+			if (codec_name != null)
+				out.writeUTF(codec_name);
+
+			out.writeBoolean(parameters != null);
+
+			if (parameters != null) {
+				WritableUtils.writeVInt(out, parameters.length);
+				out.write(parameters);
+			}
+
+			writeLongs(out, block_sizes);
+
+			out.writeBoolean(block_offsets != null);
+
+			if (block_offsets != null)
+				for (long offset : block_offsets)
+					WritableUtils.writeVLong(out, offset);
+
+			out.writeBoolean(uncompressed_sizes != null);
+
+			if (uncompressed_sizes != null)
+				writeLongs(out, uncompressed_sizes);
+
+			out.writeBoolean(record_counts != null);
+
+			if (record_counts != null)
+				writeLongs(out, record_counts);
+
+			out.writeBoolean(record_aligned);
+		}
+
+		@Override
+		public void readFields(DataInput in) throws IOException {
+			codec_name = in.readBoolean() ? in.readUTF() : null;
+
+			if (in.readBoolean()) {
+				parameters = new byte[WritableUtils.readVInt(in)];
+				in.readFully(parameters);
+			}
+			else
+				parameters = null;
+
+			block_sizes = readLongs(in);
+
+			if (in.readBoolean()) {
+				block_offsets = new long[block_sizes.length];
+
+				for (int i = 0; i < block_offsets.length; i++)
+					block_offsets[i] = WritableUtils.readVLong(in);
+			}
+			else
+				block_offsets = null;
+
+			uncompressed_sizes = in.readBoolean() ? readLongs(in) : null;
+			record_counts = in.readBoolean() ? readLongs(in) : null;
+			record_aligned = in.readBoolean();
+		}
+
+		private static void writeLongs(DataOutput out, Long[] values) throws IOException {
+			WritableUtils.writeVInt(out, values.length);
+
+			for (Long value : values)
+				WritableUtils.writeVLong(out, value);
+		}
+
+		private static Long[] readLongs(DataInput in) throws IOException {
+			Long[] values = new Long[WritableUtils.readVInt(in)];
+
+			for (int i = 0; i < values.length; i++)
+				values[i] = WritableUtils.readVLong(in);
+
+			return values;
+		}
+	}
+}
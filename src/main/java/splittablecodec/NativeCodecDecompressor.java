@@ -113,6 +113,7 @@ public class NativeCodecDecompressor implements Decompressor {
 
 	public void reset() {
 		compressedDirectBufOff = compressedDirectBufLen = 0;
+		compressedDirectBuf.clear();
 		uncompressedDirectBuf.limit(uncompressedBufferLimit);
 		uncompressedDirectBuf.position(uncompressedBufferLimit);
 	}
@@ -11,7 +11,7 @@ import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.io.compress.*;
 
 
-public abstract class NativeSplittableCodec implements SplittableCompressionCodec, Configurable {
+public abstract class NativeSplittableCodec implements BlockIndexedCodec, Configurable {
 	
 	private static boolean libraryLoaded = false;
 	private Configuration conf;
@@ -100,6 +100,11 @@ public abstract class NativeSplittableCodec implements SplittableCompressionCode
 
 	@Override
 	public SplitCompressionInputStream createInputStream(InputStream inputStream, Decompressor decompressor, long start, long end, READ_MODE read_mode) throws IOException {
-		return new CodecInputStream(inputStream, decompressor, start, end, conf);
+		throw CodecInputStream.missingBlockIndex();
+	}
+
+	@Override
+	public SplitCompressionInputStream createInputStream(InputStream inputStream, Decompressor decompressor, long start, long end, BlockIndex block_index) throws IOException {
+		return new CodecInputStream(inputStream, decompressor, start, end, block_index, conf);
 	}
 }
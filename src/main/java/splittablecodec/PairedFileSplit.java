@@ -0,0 +1,71 @@
+package splittablecodec;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.mapreduce.InputSplit;
+
+/**
+ * A split of a pair of archives holding the mates of paired-end reads, covering the same blocks,
+ * and so the same reads, of both archives.
+ *
+ * @see CodecInputFormat#getMatePath
+ */
+public class PairedFileSplit extends InputSplit implements Writable {
+
+	private final CodecFileSplit first;
+	private final CodecFileSplit second;
+	private String[] hosts;
+
+	public PairedFileSplit() {
+		first = new CodecFileSplit();
+		second = new CodecFileSplit();
+		hosts = new String[0];
+	}
+
+	public PairedFileSplit(CodecFileSplit first, CodecFileSplit second, String[] hosts) {
+		this.first = first;
+		this.second = second;
+		this.hosts = hosts;
+	}
+
+	/**
+	 * Returns the split of the archive of the first mates.
+	 */
+	public CodecFileSplit getFirst() {
+		return first;
+	}
+
+	/**
+	 * Returns the split of the archive of the second mates.
+	 */
+	public CodecFileSplit getSecond() {
+		return second;
+	}
+
+	@Override
+	public long getLength() {
+		return first.getLength() + second.getLength();
+	}
+
+	@Override
+	public String[] getLocations() {
+		return hosts;
+	}
+
+	// as for FileSplit, the hosts are only used when scheduling the tasks
+	@Override
+	public void write(DataOutput out) throws IOException {
+		first.write(out);
+		second.write(out);
+	}
+
+	@Override
+	public void readFields(DataInput in) throws IOException {
+		first.readFields(in);
+		second.readFields(in);
+		hosts = new String[0];
+	}
+}
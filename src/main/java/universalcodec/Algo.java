@@ -3,14 +3,23 @@ package universalcodec;
 import org.apache.commons.codec.digest.DigestUtils;
 import org.apache.commons.io.IOUtils;
 import org.apache.hadoop.conf.Configuration;
+import splittablecodec.BufferPool;
 
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.Arrays;
 import java.util.Map;
 
 public class Algo {
+    private static final String TMP_DIR = "/dev/shm";
+    private static final int STREAM_BUFFER_SIZE = 1024 * 1024;
+    private static final int MAX_ARRAY_SIZE = Integer.MAX_VALUE - 8;
+
     public final String name;
     public final String compress_cmd;
     public final String decompress_cmd;
@@ -20,9 +29,14 @@ public class Algo {
     public final String io_output_flag;
     public final boolean io_reverse;
     public final boolean io_output_explicit;
+    public final boolean io_stream;
+    public final String worker_compress_cmd;
+    public final String worker_decompress_cmd;
+    public final int worker_pool_size;
 
     public Algo(String name, String compress_cmd, String decompress_cmd, String compress_ext, String decompress_ext,
-                    String io_input_flag, String io_output_flag, boolean io_reverse, boolean io_output_explicit) {
+                    String io_input_flag, String io_output_flag, boolean io_reverse, boolean io_output_explicit,
+                    boolean io_stream, String worker_compress_cmd, String worker_decompress_cmd, int worker_pool_size) {
         this.name = name;
         this.compress_cmd = compress_cmd;
         this.decompress_cmd = decompress_cmd;
@@ -32,6 +46,10 @@ public class Algo {
         this.io_output_flag = io_output_flag;
         this.io_reverse = io_reverse;
         this.io_output_explicit = io_output_explicit;
+        this.io_stream = io_stream;
+        this.worker_compress_cmd = worker_compress_cmd;
+        this.worker_decompress_cmd = worker_decompress_cmd;
+        this.worker_pool_size = worker_pool_size;
     }
 
     public static Algo create(Configuration conf) {
@@ -46,9 +64,14 @@ public class Algo {
         String io_output_flag = conf.get("uc."+codec+".io.output.flag", "");
         boolean io_reverse = conf.getBoolean("uc."+codec+".io.reverse", false);
         boolean io_output_explicit = conf.getBoolean("uc."+codec+".io.output.explicit", true);
+        boolean io_stream = conf.getBoolean("uc."+codec+".io.stream", false);
+        String worker_compress_cmd = conf.get("uc."+codec+".worker.compress.cmd");
+        String worker_decompress_cmd = conf.get("uc."+codec+".worker.decompress.cmd");
+        int worker_pool_size = conf.getInt("uc."+codec+".worker.pool.size", 1);
 
         return new Algo(codec, compress_cmd, decompress_cmd, compress_ext, decompress_ext,
-                            io_input_flag, io_output_flag, io_reverse, io_output_explicit);
+                            io_input_flag, io_output_flag, io_reverse, io_output_explicit,
+                            io_stream, worker_compress_cmd, worker_decompress_cmd, worker_pool_size);
     }
 
     public static Algo create(byte[] md5, Configuration conf) {
@@ -72,11 +95,59 @@ public class Algo {
         return execute(data, false);
     }
 
+    /**
+     * Compresses the bytes between the position and the limit of {@code in} into {@code out}.
+     * See {@link #execute(ByteBuffer, ByteBuffer, boolean)}.
+     */
+    public ByteBuffer compress(ByteBuffer in, ByteBuffer out) {
+        return execute(in, out, true);
+    }
+
+    /**
+     * Decompresses the bytes between the position and the limit of {@code in} into {@code out}.
+     * See {@link #execute(ByteBuffer, ByteBuffer, boolean)}.
+     */
+    public ByteBuffer decompress(ByteBuffer in, ByteBuffer out) {
+        return execute(in, out, false);
+    }
+
     private byte[] execute(byte[] data, boolean compress) {
+        ByteBuffer out = BufferPool.acquire(Math.max(data.length, STREAM_BUFFER_SIZE));
+        ByteBuffer output = execute(ByteBuffer.wrap(data), out, compress);
+
+        if (output == null) {
+            BufferPool.release(out);
+            return null;
+        }
+
+        byte[] out_data = Arrays.copyOf(output.array(), output.limit());
+
+        BufferPool.release(output);
+
+        if (output != out)
+            BufferPool.release(out);
+
+        return out_data;
+    }
+
+    /**
+     * Runs the codec on the bytes between the position and the limit of {@code in}, which is consumed,
+     * and writes the result from the start of {@code out}. Both buffers must be backed by an array.
+     * Returns the buffer holding the result, with position 0 and limit set to its size, or {@code null}
+     * on failure: when {@code out} is too small, a larger buffer is taken from {@link BufferPool}
+     * and {@code out} is left to the caller.
+     */
+    private ByteBuffer execute(ByteBuffer in, ByteBuffer out, boolean compress) {
         try {
-            if (data.length == 0)
+            if (!in.hasRemaining())
                 return null;
 
+            String worker_cmd = compress ? worker_compress_cmd : worker_decompress_cmd;
+
+            // codecs able to loop over stdin/stdout are served by the long-lived workers of the JVM
+            if (worker_cmd != null)
+                return CodecWorkerPool.get(worker_cmd, worker_pool_size).execute(in, out);
+
             String cmd, in_ext, out_ext;
 
             if (compress) {
@@ -90,12 +161,19 @@ public class Algo {
                 out_ext = decompress_ext;
             }
 
-            int id = (int) (Math.random() * 1e6);
+            if (io_stream)
+                return executeStream(cmd, in, out);
+
+            // the input file is created atomically, so its unique name can be shared with the output file
+            Path in_file = Files.createTempFile(Paths.get(TMP_DIR), "uc_tmp", "." + in_ext);
+            String in_path = in_file.toString();
+            String out_path = in_path.substring(0, in_path.length() - in_ext.length()) + out_ext;
 
-            String in_path = "/dev/shm/uc_tmp" + id + "." + in_ext;
-            String out_path = "/dev/shm/uc_tmp" + id + "." + out_ext;
+            try (OutputStream os = Files.newOutputStream(in_file)) {
+                os.write(in.array(), in.arrayOffset() + in.position(), in.remaining());
+            }
 
-            Files.write(Paths.get(in_path), data);
+            in.position(in.limit());
 
             String in_flag = io_input_flag;
             in_flag += in_flag.equals("") ? "" : " ";
@@ -129,10 +207,23 @@ public class Algo {
 
             System.err.println(new String(IOUtils.toByteArray(p.getErrorStream())));
 
-            byte[] out_data;
-
             //if (ramdisk) {
-            out_data = Files.readAllBytes(Paths.get(out_path));
+            long size = Files.size(Paths.get(out_path));
+
+            if (size > MAX_ARRAY_SIZE)
+                throw new IOException("Output of " + name + " exceeds " + MAX_ARRAY_SIZE + " bytes");
+
+            if (size > out.capacity())
+                out = BufferPool.acquire((int) size);
+
+            out.clear();
+
+            try (InputStream is = Files.newInputStream(Paths.get(out_path))) {
+                IOUtils.readFully(is, out.array(), out.arrayOffset(), (int) size);
+            }
+
+            out.limit((int) size);
+
             Files.delete(Paths.get(in_path));
             Files.delete(Paths.get(out_path));
 			/*}
@@ -141,7 +232,7 @@ public class Algo {
 
             // System.out.println("IN: "+data.length+"   OUT: "+out_data.length);
 
-            return out_data;
+            return out;
 
         } catch (IOException | InterruptedException e) {
             e.printStackTrace();
@@ -149,4 +240,84 @@ public class Algo {
 
         return null;
     }
+
+    /**
+     * Runs the codec reading the block from its stdin and writing the result on its stdout. The block
+     * is written by a separate thread while the calling thread drains stdout straight into {@code out},
+     * so that no temporary file is needed.
+     */
+    private ByteBuffer executeStream(String cmd, ByteBuffer in, ByteBuffer out) throws IOException, InterruptedException {
+        ProcessBuilder pb = new ProcessBuilder(cmd.split(" "));
+        pb.redirectError(ProcessBuilder.Redirect.INHERIT);
+
+        Process p = pb.start();
+
+        IOException[] write_error = new IOException[1];
+
+        Thread writer = new Thread(() -> {
+            try (OutputStream os = p.getOutputStream()) {
+                os.write(in.array(), in.arrayOffset() + in.position(), in.remaining());
+            } catch (IOException e) {
+                write_error[0] = e;
+            }
+        });
+
+        writer.setDaemon(true);
+        writer.start();
+
+        ByteBuffer buffer = out;
+        boolean ok = false;
+
+        try {
+            buffer.clear();
+            int n;
+
+            try (InputStream is = p.getInputStream()) {
+                while ((n = is.read(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining())) != -1) {
+                    buffer.position(buffer.position() + n);
+
+                    if (!buffer.hasRemaining()) {
+                        if (buffer.capacity() == MAX_ARRAY_SIZE)
+                            throw new IOException("Output of " + name + " exceeds " + MAX_ARRAY_SIZE + " bytes");
+
+                        ByteBuffer larger = BufferPool.acquire((int) Math.min(2L * buffer.capacity(), MAX_ARRAY_SIZE));
+                        buffer.flip();
+                        larger.put(buffer);
+
+                        // the buffer given by the caller is left to it
+                        if (buffer != out)
+                            BufferPool.release(buffer);
+
+                        buffer = larger;
+                    }
+                }
+            }
+
+            writer.join();
+
+            int exit_code = p.waitFor();
+
+            // an output is trusted only if the codec has been given the whole block
+            if (write_error[0] != null)
+                throw new IOException(cmd + " failed reading its input (exit code " + exit_code + ")", write_error[0]);
+
+            if (exit_code != 0)
+                throw new IOException(cmd + " exited with code " + exit_code);
+
+            ok = true;
+            in.position(in.limit());
+            buffer.flip();
+            return buffer;
+        } finally {
+            if (!ok) {
+                // the process is killed, which also unblocks the writer if it is stuck on a full pipe
+                p.destroy();
+                writer.interrupt();
+                writer.join(1000);
+
+                if (buffer != out)
+                    BufferPool.release(buffer);
+            }
+        }
+    }
 }
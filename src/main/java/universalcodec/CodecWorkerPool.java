@@ -0,0 +1,186 @@
+package universalcodec;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import splittablecodec.BufferPool;
+
+/**
+ * A per-JVM pool of long-lived codec processes. Each worker is started once with the
+ * {@code uc.X.worker.compress.cmd} (or {@code uc.X.worker.decompress.cmd}) command line and then
+ * processes many blocks over its stdin/stdout, so that the process startup and the warm-up of the
+ * codec are paid once per worker instead of once per block.
+ * <p>
+ * The worker command must implement the following framing protocol, looping until stdin is closed:
+ * for each block it reads a 4-byte big-endian length followed by the block bytes, and only then answers
+ * with a 4-byte big-endian length followed by the processed bytes (a negative length reports a failure).
+ * Codecs that cannot work this way keep using one process per block.
+ *
+ * @see Algo
+ */
+public class CodecWorkerPool {
+
+    private static final int IO_BUFFER_SIZE = 1024 * 1024;
+
+    private static final Map<String, CodecWorkerPool> pools = new HashMap<>();
+
+    static {
+        Runtime.getRuntime().addShutdownHook(new Thread(CodecWorkerPool::shutdownAll));
+    }
+
+    private final String cmd;
+    private final int size;
+    private final LinkedBlockingQueue<Worker> idle = new LinkedBlockingQueue<>();
+    private final List<Worker> workers = new ArrayList<>();
+
+    private CodecWorkerPool(String cmd, int size) {
+        this.cmd = cmd;
+        this.size = size;
+    }
+
+    /**
+     * Returns the pool of workers running {@code cmd}, creating it on first use.
+     * The size of the pool is fixed by the first caller.
+     */
+    public static synchronized CodecWorkerPool get(String cmd, int size) {
+        CodecWorkerPool pool = pools.get(cmd);
+
+        if (pool == null) {
+            pool = new CodecWorkerPool(cmd, Math.max(1, size));
+            pools.put(cmd, pool);
+        }
+
+        return pool;
+    }
+
+    /**
+     * Sends the remaining bytes of {@code in} to an idle worker and returns the buffer holding its output,
+     * that is {@code out} or a larger one taken from {@link BufferPool}. If the worker fails, it is destroyed
+     * and will be replaced by a new process on the next call.
+     */
+    public ByteBuffer execute(ByteBuffer in, ByteBuffer out) throws IOException, InterruptedException {
+        Worker worker = acquire();
+        boolean ok = false;
+
+        try {
+            ByteBuffer output = worker.process(in, out);
+            ok = true;
+            idle.put(worker);
+            return output;
+        } finally {
+            // whatever the failure, the worker may be left in the middle of a block
+            if (!ok)
+                discard(worker);
+        }
+    }
+
+    private Worker acquire() throws IOException, InterruptedException {
+        while (true) {
+            Worker worker = idle.poll();
+
+            if (worker != null)
+                return worker;
+
+            synchronized (this) {
+                if (workers.size() < size) {
+                    worker = new Worker(cmd);
+                    workers.add(worker);
+                    return worker;
+                }
+            }
+
+            // a busy worker may be discarded meanwhile, so check again the pool size from time to time
+            worker = idle.poll(1, TimeUnit.SECONDS);
+
+            if (worker != null)
+                return worker;
+        }
+    }
+
+    private synchronized void discard(Worker worker) {
+        workers.remove(worker);
+        worker.destroy();
+    }
+
+    private synchronized void shutdown() {
+        for (Worker worker : workers)
+            worker.destroy();
+
+        workers.clear();
+        idle.clear();
+    }
+
+    private static synchronized void shutdownAll() {
+        for (CodecWorkerPool pool : pools.values())
+            pool.shutdown();
+    }
+
+    private static class Worker {
+        private final Process process;
+        private final DataOutputStream stdin;
+        private final DataInputStream stdout;
+
+        Worker(String cmd) throws IOException {
+            ProcessBuilder pb = new ProcessBuilder(cmd.split(" "));
+            pb.redirectError(ProcessBuilder.Redirect.INHERIT);
+
+            process = pb.start();
+            stdin = new DataOutputStream(new BufferedOutputStream(process.getOutputStream(), IO_BUFFER_SIZE));
+            stdout = new DataInputStream(new BufferedInputStream(process.getInputStream(), IO_BUFFER_SIZE));
+        }
+
+        /*
+         * Sends the remaining bytes of in and reads the reply from the start of out, or of a larger
+         * pooled buffer if out is too small
+         */
+        ByteBuffer process(ByteBuffer in, ByteBuffer out) throws IOException {
+            int in_len = in.remaining();
+
+            stdin.writeInt(in_len);
+            stdin.write(in.array(), in.arrayOffset() + in.position(), in_len);
+            stdin.flush();
+
+            in.position(in.limit());
+
+            int len = stdout.readInt();
+
+            if (len < 0)
+                throw new IOException("Codec worker failed on a block of " + in_len + " bytes: " + len);
+
+            ByteBuffer buffer = len > out.capacity() ? BufferPool.acquire(len) : out;
+            buffer.clear();
+
+            try {
+                stdout.readFully(buffer.array(), buffer.arrayOffset(), len);
+            } catch (IOException e) {
+                if (buffer != out)
+                    BufferPool.release(buffer);
+                throw e;
+            }
+
+            buffer.limit(len);
+
+            return buffer;
+        }
+
+        void destroy() {
+            try {
+                stdin.close();
+            } catch (IOException e) {
+                // the process is going away anyway
+            }
+
+            process.destroy();
+        }
+    }
+}
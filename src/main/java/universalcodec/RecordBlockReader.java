@@ -0,0 +1,324 @@
+package universalcodec;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+/**
+ * Cuts an uncompressed FASTA/FASTQ stream into blocks of about {@code block_size} bytes, each one
+ * ending on a record boundary.
+ * <p>
+ * The stream is read in bulk: a block is first filled up to {@code block_size} bytes, then the rest
+ * of the last record is taken from a look-ahead window, scanned forward once to find the start of
+ * the next record. FASTQ records are recognized by counting lines since the start of the block
+ * (4 lines per record), so a quality line starting with '@' is never mistaken for a header. FASTA
+ * records start with a line beginning with '>', whatever the number of sequence lines.
+ * <p>
+ * FASTQ files whose sequence and quality may be wrapped on several lines, as those of long reads,
+ * need {@link #setMultiline(boolean)}: their records are then parsed, a record ending once its
+ * quality has as many characters as its sequence.
+ *
+ * @see UniversalCompressorUtility
+ */
+public class RecordBlockReader {
+
+	private static final int WINDOW_SIZE = 4 * 1024 * 1024;
+
+	private final InputStream in;
+	private final byte delimiter;
+	private final int block_size;
+
+	private byte[] buffer;
+
+	private final byte[] window = new byte[WINDOW_SIZE];
+	private int window_pos, window_len;
+
+	private boolean eof;
+
+	/*
+	 * Lines found since the start of the current block and whether the next byte starts a new line
+	 */
+	private long lines;
+	private boolean line_start;
+
+	private int records;
+
+	/*
+	 * With wrapped FASTQ records, the part of the current record being scanned and the number of
+	 * bases and qualities seen so far
+	 */
+	private static final int HEADER_START = 0, HEADER = 1, SEQUENCE = 2, PLUS = 3, QUALITY = 4;
+
+	private boolean multiline;
+	private int state;
+	private long bases, qualities;
+
+	public RecordBlockReader(InputStream in, byte delimiter, int block_size) {
+		this.in = in;
+		this.delimiter = delimiter;
+		this.block_size = block_size;
+
+		buffer = new byte[block_size + 2048];
+	}
+
+	/**
+	 * If {@code true}, FASTQ records may have their sequence and quality wrapped on several lines.
+	 */
+	public void setMultiline(boolean multiline) {
+		this.multiline = multiline && delimiter == '@';
+	}
+
+	/**
+	 * Returns the number of records of the last block returned by {@link #nextBlock()}, or -1 if
+	 * the data has no records.
+	 */
+	public int getRecordCount() {
+		return records;
+	}
+
+	/**
+	 * Returns the next block of whole records, or {@code null} at the end of the stream.
+	 */
+	public byte[] nextBlock() throws IOException {
+		int len = 0;
+
+		// bytes read ahead while looking for the end of the previous block
+		if (window_pos < window_len) {
+			len = Math.min(window_len - window_pos, block_size);
+			System.arraycopy(window, window_pos, buffer, 0, len);
+			window_pos += len;
+		}
+
+		while (len < block_size && !eof) {
+			int n = in.read(buffer, len, block_size - len);
+
+			if (n == -1)
+				eof = true;
+			else
+				len += n;
+		}
+
+		if (len == 0)
+			return null;
+
+		if (multiline) {
+			state = HEADER_START;
+			records = 0;
+			scanRecords(buffer, 0, len, false);
+
+			len = completeLastRecord(len);
+		}
+		else if (delimiter != '\0') {
+			lines = delimiter == '@' ? countLines(buffer, 0, len) : 0;
+			line_start = buffer[len - 1] == '\n';
+
+			len = completeLastRecord(len);
+
+			// the last record of the stream may miss its final newline
+			if (delimiter == '@')
+				records = (int) ((lines + (buffer[len - 1] != '\n' ? 1 : 0) + 3) / 4);
+			else
+				records = countRecords(buffer, len);
+		}
+		else
+			records = -1;
+
+		return Arrays.copyOf(buffer, len);
+	}
+
+	/**
+	 * Returns the next block of {@code count} records, or of the remaining ones if fewer, or
+	 * {@code null} at the end of the stream. It is used to cut the mate of a paired-end file at the
+	 * same reads as the first file.
+	 */
+	public byte[] nextBlock(int count) throws IOException {
+		if (delimiter == '\0')
+			throw new IOException("Blocks of records need a record delimiter");
+
+		int len = 0;
+
+		lines = 0;
+		line_start = true;
+		state = HEADER_START;
+		records = 0;
+
+		while (true) {
+			if (window_pos == window_len && !fillWindow())
+				break;
+
+			int boundary = findBoundary(window_pos, window_len);
+
+			if (boundary != -1 && records == count) {
+				len = append(len, window_pos, boundary - window_pos);
+				window_pos = boundary;
+				break;
+			}
+
+			// the delimiter starting a record is taken, so that the search goes on past it
+			int end = boundary == -1 ? window_len : boundary + 1;
+
+			if (boundary != -1) {
+				records++;
+				line_start = false;
+				state = HEADER;
+			}
+
+			len = append(len, window_pos, end - window_pos);
+			window_pos = end;
+		}
+
+		return len == 0 ? null : Arrays.copyOf(buffer, len);
+	}
+
+	/*
+	 * Appends to the block the bytes preceding the start of the next record
+	 */
+	private int completeLastRecord(int len) throws IOException {
+		while (true) {
+			if (window_pos == window_len && !fillWindow())
+				return len;
+
+			int boundary = findBoundary(window_pos, window_len);
+			int end = boundary == -1 ? window_len : boundary;
+
+			len = append(len, window_pos, end - window_pos);
+			window_pos = end;
+
+			if (boundary != -1)
+				return len;
+		}
+	}
+
+	/*
+	 * Returns the position of the first record start in window[from, to), or -1 if there is none
+	 */
+	private int findBoundary(int from, int to) {
+		if (multiline)
+			return scanRecords(window, from, to, true);
+
+		boolean fastq = delimiter == '@';
+
+		for (int i = from; i < to; i++) {
+			byte b = window[i];
+
+			if (line_start && b == delimiter && (!fastq || (lines & 3) == 0))
+				return i;
+
+			line_start = b == '\n';
+
+			if (line_start)
+				lines++;
+		}
+
+		return -1;
+	}
+
+	private int append(int len, int from, int n) throws IOException {
+		if (len + n > buffer.length) {
+			long capacity = Math.max(2L * buffer.length, (long) len + n);
+
+			if (len + n < 0 || capacity > Integer.MAX_VALUE - 8)
+				throw new IOException("Record exceeding the maximum block size");
+
+			buffer = Arrays.copyOf(buffer, (int) capacity);
+		}
+
+		System.arraycopy(window, from, buffer, len, n);
+
+		return len + n;
+	}
+
+	private boolean fillWindow() throws IOException {
+		if (eof)
+			return false;
+
+		int n = in.read(window, 0, window.length);
+
+		if (n == -1) {
+			eof = true;
+			return false;
+		}
+
+		window_pos = 0;
+		window_len = n;
+
+		return true;
+	}
+
+	/*
+	 * Parses the wrapped FASTQ records of data[from, to), counting those starting there. If stop is
+	 * set, returns the position of the first record start instead, without parsing it, or -1.
+	 */
+	private int scanRecords(byte[] data, int from, int to, boolean stop) {
+		for (int i = from; i < to; i++) {
+			byte b = data[i];
+
+			switch (state) {
+				case HEADER_START:
+					if (b == '@') {
+						if (stop)
+							return i;
+
+						records++;
+						state = HEADER;
+					}
+					break;
+
+				case HEADER:
+					if (b == '\n') {
+						state = SEQUENCE;
+						line_start = true;
+						bases = 0;
+					}
+					break;
+
+				case SEQUENCE:
+					if (line_start && b == '+')
+						state = PLUS;
+					else if (b != '\n')
+						bases++;
+
+					line_start = b == '\n';
+					break;
+
+				case PLUS:
+					if (b == '\n') {
+						state = QUALITY;
+						qualities = 0;
+					}
+					break;
+
+				default: // QUALITY
+					if (b != '\n')
+						qualities++;
+					else if (qualities >= bases)
+						state = HEADER_START;
+			}
+		}
+
+		return -1;
+	}
+
+	/*
+	 * Counts the lines starting with the delimiter
+	 */
+	private int countRecords(byte[] data, int len) {
+		int count = data[0] == delimiter ? 1 : 0;
+
+		for (int i = 1; i < len; i++)
+			if (data[i] == delimiter && data[i - 1] == '\n')
+				count++;
+
+		return count;
+	}
+
+	private static long countLines(byte[] data, int from, int to) {
+		long count = 0;
+
+		for (int i = from; i < to; i++)
+			if (data[i] == '\n')
+				count++;
+
+		return count;
+	}
+}
@@ -0,0 +1,203 @@
+package universalcodec;
+
+import com.google.common.primitives.Ints;
+import com.google.common.primitives.Longs;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.hadoop.conf.Configuration;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+
+/**
+ * Writes a {@code .uc} archive on any {@code OutputStream} (a local file or an HDFS stream) while
+ * the compressed blocks are produced: the header is written on creation, each block as soon as it
+ * is available, and the footer with the list of block sizes when {@link #finish()} is called.
+ * <p>
+ * With {@code uc.hdfs.block.align}, a block that would cross the boundary of an HDFS block is
+ * preceded by zero padding up to that boundary, so that each split can be read from a single
+ * replica. The offsets of the blocks, and their uncompressed sizes and number of records when
+ * known, are recorded in an extended footer:
+ * <pre>
+ * 0xA4 | flags | for each block: size (4 bytes) [offset (8 bytes)] [uncompressed size (4 bytes)] [records (4 bytes)]
+ *      | 0xFF | nblocks (4 bytes) | footer offset (8 bytes)
+ * </pre>
+ * The fields between brackets are present according to the flags. Archives with none of them keep
+ * the original footer, starting with 0xA2 and listing the block sizes only.
+ * <p>
+ * Writers of blocks ending on record boundaries should call {@link #setRecordAligned(boolean)}, so
+ * that the readers can parse each split on its own, without looking into the next one.
+ *
+ * @see UniversalInputFormat
+ */
+public class UniversalArchiveWriter {
+
+	static final int FOOTER_START = 0xA2;
+	static final int EXTENDED_FOOTER_START = 0xA4;
+	static final int FOOTER_END = 0xFF;
+
+	/*
+	 * Flags of the extended footer
+	 */
+	static final int FLAG_OFFSETS = 0x01;
+	static final int FLAG_UNCOMPRESSED_SIZES = 0x02;
+	static final int FLAG_RECORDS = 0x04;
+	static final int FLAG_ALIGNED = 0x08;
+	static final int FLAG_RECORD_ALIGNED = 0x10;
+
+	private static final long DEFAULT_HDFS_BLOCK_SIZE = 128L * 1024 * 1024;
+	private static final int COPY_BUFFER_SIZE = 4 * 1024 * 1024;
+
+	private final OutputStream out;
+	private final long align_size;
+	private final ArrayList<Integer> blocksizes = new ArrayList<>();
+	private final ArrayList<Long> offsets = new ArrayList<>();
+	private final ArrayList<Integer> uncompressed_sizes = new ArrayList<>();
+	private final ArrayList<Integer> record_counts = new ArrayList<>();
+	private boolean all_uncompressed_sizes = true, all_record_counts = true;
+	private boolean record_aligned;
+	private long pos;
+
+	/**
+	 * Aligns the blocks to the HDFS blocks if {@code uc.hdfs.block.align} is set, assuming HDFS blocks
+	 * of {@code uc.hdfs.block.size} bytes ({@code dfs.blocksize} by default).
+	 */
+	public UniversalArchiveWriter(OutputStream out, Algo algo, Configuration conf) throws IOException {
+		this(out, algo, conf.getBoolean("uc.hdfs.block.align", false) ?
+				conf.getLongBytes("uc.hdfs.block.size", conf.getLongBytes("dfs.blocksize", DEFAULT_HDFS_BLOCK_SIZE)) : 0);
+	}
+
+	private UniversalArchiveWriter(OutputStream out, Algo algo, long align_size) throws IOException {
+		this.out = out;
+		this.align_size = align_size;
+
+		out.write(0xA1);
+		out.write(DigestUtils.md5(algo.name));
+
+		pos = UniversalCodec.HEADER_SIZE;
+	}
+
+	/**
+	 * Declares whether each block starts and ends on a record boundary.
+	 */
+	public void setRecordAligned(boolean record_aligned) {
+		this.record_aligned = record_aligned;
+	}
+
+	public void writeBlock(byte[] data, int off, int len) throws IOException {
+		writeBlock(data, off, len, -1, -1);
+	}
+
+	/**
+	 * Writes a compressed block, recording its uncompressed size and its number of records in the
+	 * footer. Unknown values are negative.
+	 */
+	public void writeBlock(byte[] data, int off, int len, int uncompressed_size, int records) throws IOException {
+		align(len);
+
+		out.write(data, off, len);
+
+		addBlock(len, uncompressed_size, records);
+	}
+
+	/**
+	 * Copies a block of {@code len} bytes, already compressed, from {@code in}.
+	 * See {@link #writeBlock(byte[], int, int, int, int)}.
+	 */
+	public void copyBlock(InputStream in, int len, int uncompressed_size, int records) throws IOException {
+		align(len);
+
+		byte[] buffer = new byte[Math.min(len, COPY_BUFFER_SIZE)];
+		int remaining = len;
+
+		while (remaining > 0) {
+			int n = in.read(buffer, 0, Math.min(remaining, buffer.length));
+
+			if (n == -1)
+				throw new EOFException("Missing " + remaining + " bytes of a compressed block");
+
+			out.write(buffer, 0, n);
+			remaining -= n;
+		}
+
+		addBlock(len, uncompressed_size, records);
+	}
+
+	private void addBlock(int len, int uncompressed_size, int records) {
+		offsets.add(pos);
+		blocksizes.add(len);
+		uncompressed_sizes.add(uncompressed_size);
+		record_counts.add(records);
+		pos += len;
+
+		// the footer records a field only if it is known for all the blocks
+		all_uncompressed_sizes &= uncompressed_size >= 0;
+		all_record_counts &= records >= 0;
+	}
+
+	/*
+	 * Pads up to the next HDFS block boundary if a block of len bytes would cross it
+	 */
+	private void align(int len) throws IOException {
+		if (align_size <= 0)
+			return;
+
+		long used = pos % align_size;
+
+		if (used == 0 || used + len <= align_size)
+			return;
+
+		byte[] padding = new byte[(int) Math.min(align_size - used, COPY_BUFFER_SIZE)];
+
+		for (long remaining = align_size - used; remaining > 0; remaining -= padding.length) {
+			int n = (int) Math.min(remaining, padding.length);
+			out.write(padding, 0, n);
+			pos += n;
+		}
+	}
+
+	/**
+	 * Writes the footer. The underlying stream is left open.
+	 */
+	public void finish() throws IOException {
+		int flags = align_size > 0 ? FLAG_OFFSETS | FLAG_ALIGNED : 0;
+
+		if (!blocksizes.isEmpty()) {
+			flags |= all_uncompressed_sizes ? FLAG_UNCOMPRESSED_SIZES : 0;
+			flags |= all_record_counts ? FLAG_RECORDS : 0;
+		}
+
+		flags |= record_aligned ? FLAG_RECORD_ALIGNED : 0;
+
+		if (flags == 0) {
+			out.write(FOOTER_START);
+
+			for (int bs : blocksizes)
+				out.write(Ints.toByteArray(bs));
+		}
+		else {
+			out.write(EXTENDED_FOOTER_START);
+			out.write(flags);
+
+			for (int i = 0; i < blocksizes.size(); i++) {
+				out.write(Ints.toByteArray(blocksizes.get(i)));
+
+				if ((flags & FLAG_OFFSETS) != 0)
+					out.write(Longs.toByteArray(offsets.get(i)));
+
+				if ((flags & FLAG_UNCOMPRESSED_SIZES) != 0)
+					out.write(Ints.toByteArray(uncompressed_sizes.get(i)));
+
+				if ((flags & FLAG_RECORDS) != 0)
+					out.write(Ints.toByteArray(record_counts.get(i)));
+			}
+		}
+
+		out.write(FOOTER_END);
+
+		out.write(Ints.toByteArray(blocksizes.size()));
+		out.write(Longs.toByteArray(pos));
+	}
+}
@@ -6,16 +6,16 @@ import java.io.OutputStream;
 
 import org.apache.hadoop.conf.Configurable;
 import org.apache.hadoop.conf.Configuration;
-import org.apache.hadoop.fs.FSDataInputStream;
 import org.apache.hadoop.io.compress.CompressionInputStream;
 import org.apache.hadoop.io.compress.CompressionOutputStream;
 import org.apache.hadoop.io.compress.Compressor;
 import org.apache.hadoop.io.compress.Decompressor;
 import org.apache.hadoop.io.compress.SplitCompressionInputStream;
-import org.apache.hadoop.io.compress.SplittableCompressionCodec;
+import splittablecodec.BlockIndex;
+import splittablecodec.BlockIndexedCodec;
 import splittablecodec.CodecInputStream;
 
-public class UniversalCodec implements Configurable, SplittableCompressionCodec {
+public class UniversalCodec implements Configurable, BlockIndexedCodec {
 
 	public static final int HEADER_SIZE = 1 + 16;
 	public static final int UNCMP_BLOCK_SIZE = 128 * 1024 * 1024; // Size of the uncompressed block of data (Limited to 144Kb for stdin/stdout)
@@ -34,30 +34,27 @@ public class UniversalCodec implements Configurable, SplittableCompressionCodec
 		return new UniversalDecompressor(conf);
 	}
 
+	/*
+	 * Archives are read only in the splits planned by CodecInputFormat, with their block index
+	 */
 	@Override
 	public CompressionInputStream createInputStream(InputStream in) throws IOException {
-		conf.setInt("compressed_buffer_size", CMP_BUFFER_SIZE);
-		conf.setInt("uncompressed_buffer_size", UNCMP_BUFFER_SIZE);
-
-		return new CodecInputStream(in, new UniversalDecompressor(conf), 0, -1, conf);
+		throw CodecInputStream.missingBlockIndex();
 	}
 
 	@Override
 	public CompressionInputStream createInputStream(InputStream in, Decompressor decompressor) throws IOException {
-		conf.setInt("compressed_buffer_size", CMP_BUFFER_SIZE);
-		conf.setInt("uncompressed_buffer_size", UNCMP_BUFFER_SIZE);
-
-		return new CodecInputStream(in, (UniversalDecompressor) decompressor, 0, Long.MAX_VALUE, conf);
+		throw CodecInputStream.missingBlockIndex();
 	}
 
 	@Override
 	public CompressionOutputStream createOutputStream(OutputStream out) throws IOException {
-		return new UniversalOutputStream(out, new UniversalCompressor(conf));
+		return new UniversalOutputStream(out, new UniversalCompressor(conf), conf);
 	}
 
 	@Override
 	public CompressionOutputStream createOutputStream(OutputStream out, Compressor compressor) throws IOException {
-		return new UniversalOutputStream(out, (UniversalCompressor) compressor);
+		return new UniversalOutputStream(out, (UniversalCompressor) compressor, conf);
 	}
 
 	@Override
@@ -78,10 +75,16 @@ public class UniversalCodec implements Configurable, SplittableCompressionCodec
 	@Override
 	public SplitCompressionInputStream createInputStream(InputStream in, Decompressor decompressor, long start,
 														 long end, READ_MODE mode) throws IOException {
+		throw CodecInputStream.missingBlockIndex();
+	}
+
+	@Override
+	public SplitCompressionInputStream createInputStream(InputStream in, Decompressor decompressor, long start,
+														 long end, BlockIndex block_index) throws IOException {
 		conf.setInt("compressed_buffer_size", CMP_BUFFER_SIZE);
 		conf.setInt("uncompressed_buffer_size", UNCMP_BUFFER_SIZE);
 
-		return new CodecInputStream(in, decompressor, start, end, conf);
+		return new CodecInputStream(in, decompressor, start, end, block_index, conf);
 	}
 
 	@Override
@@ -93,20 +96,4 @@ public class UniversalCodec implements Configurable, SplittableCompressionCodec
 	public void setConf(Configuration conf) {
 		this.conf = conf;
 	}
-
-	public InputStream createInputStream(FSDataInputStream in, long startByte, long endByte)
-			throws IOException {
-		conf.setInt("compressed_buffer_size", CMP_BUFFER_SIZE);
-		conf.setInt("uncompressed_buffer_size", UNCMP_BUFFER_SIZE);
-
-		return new CodecInputStream(in, new UniversalDecompressor(conf), startByte, endByte, conf);
-	}
-
-	public InputStream createInputStream(FSDataInputStream in, Decompressor decompressor, long startByte,
-												  long endByte, READ_MODE mode) throws IOException {
-		conf.setInt("compressed_buffer_size", CMP_BUFFER_SIZE);
-		conf.setInt("uncompressed_buffer_size", UNCMP_BUFFER_SIZE);
-
-		return new CodecInputStream(in, decompressor, startByte, endByte, conf);
-	}
 }
@@ -1,5 +1,7 @@
 package universalcodec;
 
+import java.nio.ByteBuffer;
+
 import org.apache.hadoop.conf.Configuration;
 import splittablecodec.CodecCompressor;
 
@@ -16,4 +18,9 @@ public class UniversalCompressor extends CodecCompressor {
 	public byte[] compress(byte[] input) {
 		return algo.compress(input);
 	}
+
+	@Override
+	protected ByteBuffer compress(ByteBuffer in, ByteBuffer out) {
+		return algo.compress(in, out);
+	}
 }
@@ -1,30 +1,44 @@
 package universalcodec;
 
+import java.io.DataInputStream;
+import java.io.EOFException;
 import java.io.IOException;
-import java.util.Random;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 
-import fastdoop.Record;
 import fastdoop.compression.*;
 import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileStatus;
 import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
-import org.apache.hadoop.io.LongWritable;
 import org.apache.hadoop.io.NullWritable;
 import org.apache.hadoop.io.Text;
 import org.apache.hadoop.mapreduce.Job;
 import org.apache.hadoop.mapreduce.Mapper;
-import org.apache.hadoop.mapreduce.Reducer;
 import org.apache.hadoop.mapreduce.lib.input.FileInputFormat;
 import org.apache.hadoop.mapreduce.lib.output.FileOutputFormat;
+import org.apache.hadoop.mapreduce.lib.output.LazyOutputFormat;
+import org.apache.hadoop.mapreduce.lib.output.TextOutputFormat;
 
 /**
  * This job allows to compress the input file using the {@code UniversalCodec} class.
+ * <p>
+ * Each map task compresses the records of its own split into blocks, written in a part file
+ * together with the list of their sizes. When the job ends, the part files are stitched in split
+ * order into a single {@code .uc} archive, with a footer listing all the blocks, so that no reducer
+ * is needed and the record order is preserved.
  *
  * @author Francesco Palini
  * @see UniversalCodec
  */
 public class UniversalCompressorJob {
 
+    static final String BLOCKS_EXT = ".blocks";
+    static final String SIZES_EXT = ".sizes";
+
     public int compress(String[] args, Configuration conf) throws Exception {
         conf.set("io.compression.codecs", "universalcodec.UniversalCodec");
 
@@ -33,9 +47,7 @@ public class UniversalCompressorJob {
         String codec = args[2];
         String seqtype = args[3];
 
-        conf.set("universalcodec.codec", codec);
-
-        conf.setBoolean("universalcodec.assembled", true);
+        conf.set("uc.codec", codec);
 
         String job_name = "UC Compression with " + codec + " on " + input;
         Job job = Job.getInstance(conf, job_name);
@@ -43,19 +55,18 @@ public class UniversalCompressorJob {
 
         Path input_path = new Path(input);
         Path output_path = new Path(output);
+        Path parts_path = new Path(output + "_parts");
 
         fs.delete(output_path, true);
+        fs.delete(parts_path, true);
 
         job.setJarByClass(this.getClass());
 
-        job.setMapperClass(CSMapper.class);
-        job.setReducerClass(CSReducer.class);
+        job.setMapperClass(CompressMapper.class);
 
-        job.setNumReduceTasks(1);
+        job.setNumReduceTasks(0);
 
-        job.setMapOutputKeyClass(LongWritable.class);
-        job.setMapOutputValueClass(Text.class);
-        job.setOutputKeyClass(Text.class);
+        job.setOutputKeyClass(NullWritable.class);
         job.setOutputValueClass(NullWritable.class);
 
         if (seqtype.equals("fasta"))
@@ -64,25 +75,130 @@ public class UniversalCompressorJob {
             job.setInputFormatClass(FASTQInputFileFormat.class);
 
         FileInputFormat.addInputPath(job, input_path);
-        FileOutputFormat.setOutputPath(job, output_path);
+        FileOutputFormat.setOutputPath(job, parts_path);
+
+        // the mappers write their own part files, so no empty output file is needed
+        LazyOutputFormat.setOutputFormatClass(job, TextOutputFormat.class);
+
+        if (!job.waitForCompletion(true))
+            return 1;
+
+        merge(fs, parts_path, output_path, Algo.create(job.getConfiguration()), job.getConfiguration());
 
-        FileOutputFormat.setOutputCompressorClass(job, UniversalCodec.class);  // uncomment to check output with input
+        fs.delete(parts_path, true);
 
-        return job.waitForCompletion(true) ? 0 : 1;
+        return 0;
     }
 
-    public static class CSMapper extends Mapper<Text, Record, LongWritable, Text> {
+    /**
+     * Concatenates the blocks of all the part files, in split order, into a single archive.
+     */
+    static void merge(FileSystem fs, Path parts_path, Path output_path, Algo algo, Configuration conf) throws IOException {
+        FileStatus[] parts = fs.listStatus(parts_path, path -> path.getName().endsWith(BLOCKS_EXT));
+
+        Arrays.sort(parts, (a, b) -> a.getPath().getName().compareTo(b.getPath().getName()));
+
+        try (FSDataOutputStream ostream = fs.create(output_path, true)) {
+            UniversalArchiveWriter archive = new UniversalArchiveWriter(ostream, algo, conf);
+
+            // the mappers compress whole records only
+            archive.setRecordAligned(true);
+
+            for (FileStatus part : parts) {
+                String name = part.getPath().getName();
+                Path sizes_path = new Path(parts_path, name.substring(0, name.length() - BLOCKS_EXT.length()) + SIZES_EXT);
 
-        public void map(Text no_value, Record record, Context context) throws IOException, InterruptedException {
-            context.write(new LongWritable(new Random().nextLong()), new Text(record.toString()));
+                List<int[]> blocksizes = readBlockSizes(fs, sizes_path);
+
+                try (FSDataInputStream blocks = fs.open(part.getPath())) {
+                    for (int[] bs : blocksizes)
+                        archive.copyBlock(blocks, bs[0], bs[1], bs[2]);
+                }
+            }
+
+            archive.finish();
+        }
+    }
+
+    /*
+     * Reads the compressed size, the uncompressed size and the number of records of each block
+     */
+    private static List<int[]> readBlockSizes(FileSystem fs, Path sizes_path) throws IOException {
+        List<int[]> blocksizes = new ArrayList<>();
+
+        try (DataInputStream sizes = fs.open(sizes_path)) {
+            while (true)
+                blocksizes.add(new int[] { sizes.readInt(), sizes.readInt(), sizes.readInt() });
+        } catch (EOFException e) {
+            // end of the list
         }
+
+        return blocksizes;
     }
 
-    public static class CSReducer extends Reducer<LongWritable, Text, Text, NullWritable> {
+    public static class CompressMapper extends Mapper<Text, Object, NullWritable, NullWritable> {
+
+        private Algo algo;
+        private byte[] buffer;
+        private int len;
+        private int records;
+
+        private FSDataOutputStream blocks;
+        private FSDataOutputStream sizes;
+
+        @Override
+        protected void setup(Context context) throws IOException, InterruptedException {
+            Configuration conf = context.getConfiguration();
+
+            algo = Algo.create(conf);
+            buffer = new byte[UniversalCodec.UNCMP_BUFFER_SIZE];
+
+            // part files are named after the task, so that their order is the order of the splits
+            Path work_path = FileOutputFormat.getWorkOutputPath(context);
+            String name = String.format("part-m-%05d", context.getTaskAttemptID().getTaskID().getId());
+            FileSystem fs = work_path.getFileSystem(conf);
+
+            blocks = fs.create(new Path(work_path, name + BLOCKS_EXT), true);
+            sizes = fs.create(new Path(work_path, name + SIZES_EXT), true);
+        }
+
+        @Override
+        public void map(Text no_value, Object record, Context context) throws IOException, InterruptedException {
+            byte[] data = (record.toString() + "\n").getBytes();
+
+            if (len > 0 && len + data.length > UniversalCodec.UNCMP_BLOCK_SIZE)
+                compressBlock();
+
+            if (data.length > buffer.length - len)
+                buffer = Arrays.copyOf(buffer, len + data.length);
+
+            System.arraycopy(data, 0, buffer, len, data.length);
+            len += data.length;
+            records++;
+        }
+
+        @Override
+        protected void cleanup(Context context) throws IOException, InterruptedException {
+            if (len > 0)
+                compressBlock();
+
+            blocks.close();
+            sizes.close();
+        }
+
+        private void compressBlock() throws IOException {
+            byte[] out_data = algo.compress(Arrays.copyOf(buffer, len));
+
+            if (out_data == null)
+                throw new IOException("Block compression failed");
+
+            blocks.write(out_data);
+            sizes.writeInt(out_data.length);
+            sizes.writeInt(len);
+            sizes.writeInt(records);
 
-        public void reduce(LongWritable id, Iterable<Text> lines, Context context) throws IOException, InterruptedException {
-            for (Text line : lines)
-                context.write(line, NullWritable.get());
+            len = 0;
+            records = 0;
         }
     }
-}
\ No newline at end of file
+}
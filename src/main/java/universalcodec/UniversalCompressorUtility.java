@@ -1,108 +1,175 @@
 package universalcodec;
 
-import com.google.common.primitives.Ints;
-import com.google.common.primitives.Longs;
-import org.apache.commons.codec.digest.DigestUtils;
 import org.apache.hadoop.conf.Configuration;
 
 import java.io.*;
-import java.util.ArrayList;
-import java.util.Arrays;
+import java.util.ArrayDeque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import static universalcodec.UniversalCodec.UNCMP_BLOCK_SIZE;
-import static universalcodec.UniversalCodec.HEADER_SIZE;
 
 public class UniversalCompressorUtility {
 
 	public static void compress(String input, String output, Configuration conf) throws IOException {
+		try (FileOutputStream ostream = new FileOutputStream(output)) {
+			compress(input, ostream, conf);
+		}
+	}
+
+	/**
+	 * Compresses the local file {@code input} writing the {@code .uc} archive on {@code ostream} as the
+	 * blocks are produced, e.g. directly on an HDFS file. The stream is not closed.
+	 */
+	public static void compress(String input, OutputStream ostream, Configuration conf) throws IOException {
 		// compress <input> <codec>
 		Algo algo = Algo.create(conf);
 
-		byte delimiter = delimiter(algo);
+		try (FileInputStream istream = new FileInputStream(input)) {
+			RecordBlockReader reader = new RecordBlockReader(istream, delimiter(algo), UNCMP_BLOCK_SIZE);
+			reader.setMultiline(conf.getBoolean("uc.fastq.long.reads", false));
+			UniversalArchiveWriter archive = new UniversalArchiveWriter(ostream, algo, conf);
+			archive.setRecordAligned(delimiter(algo) != '\0');
 
-		String comp_file = output;
+			long total = 0;
 
-		FileInputStream istream = new FileInputStream(input);
-		FileOutputStream ostream = new FileOutputStream(comp_file);
-		byte[] buffer = new byte[UniversalCodec.CMP_BUFFER_SIZE];
+			// blocks are compressed by a pool of threads and written back in the order they were read
+			int threads = Math.max(1, conf.getInt("uc.compress.threads", 1));
+			ExecutorService executor = Executors.newFixedThreadPool(threads);
+			ArrayDeque<Future<CompressedBlock>> pending = new ArrayDeque<>();
 
-		int off = 0;
+			try {
+				byte[] block;
 
-		ostream.write(0xA1);
-		ostream.write(DigestUtils.md5(algo.name));
+				while ((block = reader.nextBlock()) != null) {
+					byte[] data = block;
+					int records = reader.getRecordCount();
+					pending.add(executor.submit(() -> new CompressedBlock(algo.compress(data), data.length, records)));
 
-		ArrayList<Integer> blocksizes = new ArrayList<>();
-		long total = 0;
+					// at most one block waits for a free thread, to bound the memory used by the pending blocks
+					if (pending.size() > threads)
+						writeBlock(pending.poll(), archive);
 
-		while(istream.available() > 0) {
-			int n = istream.read(buffer, off, UNCMP_BLOCK_SIZE-off);
-			int m = n;
+					total += block.length;
+					System.out.printf("Compressed: %.1fGB\n", (total * 1.0 / (1024 * 1024 * 1024)));
+				}
 
-			if (off == 0)
-				off++;
-			else
-				m += off;
+				while (!pending.isEmpty())
+					writeBlock(pending.poll(), archive);
+			} finally {
+				executor.shutdownNow();
+			}
 
-			if (m == UNCMP_BLOCK_SIZE)
-				while(istream.available() > 0) {
-					byte nextByte = (byte) istream.read();
+			archive.finish();
+		}
+	}
 
-					if (nextByte == delimiter && buffer[m-1] == '\n') {
-						// FASTQ check
-						if (delimiter == '@') {
-							int n_prevlines = 0;
+	public static void compressPaired(String input1, String input2, String output1, String output2, Configuration conf) throws IOException {
+		try (FileOutputStream ostream1 = new FileOutputStream(output1); FileOutputStream ostream2 = new FileOutputStream(output2)) {
+			compressPaired(input1, input2, ostream1, ostream2, conf);
+		}
+	}
 
-							for (int i = m - 2; i > 0; i--) {
-								if (buffer[i] == '\n')
-									n_prevlines++;
-								else if (buffer[i] == '+')
-									break;
-							}
+	/**
+	 * Compresses the local files {@code input1} and {@code input2}, holding the mates of paired-end
+	 * reads in the same order, into two {@code .uc} archives whose blocks hold the same reads: each
+	 * block of {@code input2} has as many records as the block of {@code input1} with the same index.
+	 * The streams are not closed.
+	 */
+	public static void compressPaired(String input1, String input2, OutputStream ostream1, OutputStream ostream2,
+									  Configuration conf) throws IOException {
+		Algo algo = Algo.create(conf);
 
-							if (n_prevlines == 0) {// quality line
-								buffer[m] = nextByte;
-								m += 1;
-							} else // new read
-								break;
-						}
-						else
-							break;
-					}
-					else {
-						buffer[m] = nextByte;
-						m += 1;
-					}
-				}
+		if (delimiter(algo) == '\0')
+			throw new IOException("Paired-end compression needs a FASTA/FASTQ codec");
 
-			byte[] out_data = algo.compress(Arrays.copyOf(buffer, m));
+		try (FileInputStream istream1 = new FileInputStream(input1); FileInputStream istream2 = new FileInputStream(input2)) {
+			RecordBlockReader reader1 = new RecordBlockReader(istream1, delimiter(algo), UNCMP_BLOCK_SIZE);
+			RecordBlockReader reader2 = new RecordBlockReader(istream2, delimiter(algo), UNCMP_BLOCK_SIZE);
+			reader1.setMultiline(conf.getBoolean("uc.fastq.long.reads", false));
+			reader2.setMultiline(conf.getBoolean("uc.fastq.long.reads", false));
+			UniversalArchiveWriter archive1 = new UniversalArchiveWriter(ostream1, algo, conf);
+			UniversalArchiveWriter archive2 = new UniversalArchiveWriter(ostream2, algo, conf);
+			archive1.setRecordAligned(true);
+			archive2.setRecordAligned(true);
 
-			assert out_data != null;
-			blocksizes.add(out_data.length);
-			ostream.write(out_data);
+			long total = 0;
 
-			buffer[0] = delimiter;
+			// the blocks of both files are compressed by the same pool, each pair written once both are ready
+			int threads = Math.max(1, conf.getInt("uc.compress.threads", 1));
+			ExecutorService executor = Executors.newFixedThreadPool(threads);
+			ArrayDeque<Future<CompressedBlock>> pending1 = new ArrayDeque<>();
+			ArrayDeque<Future<CompressedBlock>> pending2 = new ArrayDeque<>();
 
-			total += m;
-            System.out.printf("Compressed: %.1fGB\n", (total * 1.0 / (1024 * 1024 * 1024)));
-		}
+			try {
+				byte[] block1;
 
-		ostream.write(0xA2);
+				while ((block1 = reader1.nextBlock()) != null) {
+					int records = reader1.getRecordCount();
+					byte[] block2 = reader2.nextBlock(records);
 
-		for (int bs : blocksizes)
-			ostream.write(Ints.toByteArray(bs));
+					if (block2 == null || reader2.getRecordCount() != records)
+						throw new IOException(input2 + " has fewer reads than " + input1);
 
-		long tot_sizes = 0;
+					byte[] data1 = block1, data2 = block2;
+					pending1.add(executor.submit(() -> new CompressedBlock(algo.compress(data1), data1.length, records)));
+					pending2.add(executor.submit(() -> new CompressedBlock(algo.compress(data2), data2.length, records)));
 
-		for (int bs : blocksizes)
-			tot_sizes += bs;
+					if (2 * pending1.size() > threads + 1) {
+						writeBlock(pending1.poll(), archive1);
+						writeBlock(pending2.poll(), archive2);
+					}
 
-		ostream.write(0xFF);
+					total += block1.length + block2.length;
+					System.out.printf("Compressed: %.1fGB\n", (total * 1.0 / (1024 * 1024 * 1024)));
+				}
+
+				if (reader2.nextBlock(1) != null)
+					throw new IOException(input2 + " has more reads than " + input1);
+
+				while (!pending1.isEmpty()) {
+					writeBlock(pending1.poll(), archive1);
+					writeBlock(pending2.poll(), archive2);
+				}
+			} finally {
+				executor.shutdownNow();
+			}
+
+			archive1.finish();
+			archive2.finish();
+		}
+	}
 
-		ostream.write(Ints.toByteArray(blocksizes.size()));
-		ostream.write(Longs.toByteArray(HEADER_SIZE + tot_sizes));
+	private static void writeBlock(Future<CompressedBlock> block, UniversalArchiveWriter archive) throws IOException {
+		CompressedBlock compressed;
 
-		istream.close();
-		ostream.close();
+		try {
+			compressed = block.get();
+		} catch (InterruptedException | ExecutionException e) {
+			throw new IOException("Block compression failed", e);
+		}
+
+		if (compressed.data == null)
+			throw new IOException("Block compression failed");
+
+		archive.writeBlock(compressed.data, 0, compressed.data.length, compressed.uncompressed_size, compressed.records);
+	}
+
+	/*
+	 * A compressed block with the metadata recorded in the footer
+	 */
+	private static class CompressedBlock {
+		final byte[] data;
+		final int uncompressed_size;
+		final int records;
+
+		CompressedBlock(byte[] data, int uncompressed_size, int records) {
+			this.data = data;
+			this.uncompressed_size = uncompressed_size;
+			this.records = records;
+		}
 	}
 
 	public static byte delimiter(Algo algo) {
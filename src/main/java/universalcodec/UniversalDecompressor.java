@@ -1,19 +1,39 @@
 package universalcodec;
 
+import java.nio.ByteBuffer;
+
 import org.apache.hadoop.conf.Configuration;
 import splittablecodec.CodecDecompressor;
 
 public class UniversalDecompressor extends CodecDecompressor {
 
-	private final Algo algo;
+	private Algo algo;
 
 	public UniversalDecompressor(Configuration conf) {
 		super(conf);
 		algo = Algo.create(conf);
 	}
 
+	/**
+	 * A decompressor taken from {@code CodecPool} may have been created for another codec.
+	 */
+	@Override
+	public void reinit(Configuration conf) {
+		super.reinit(conf);
+
+		String codec = conf.get("uc.codec");
+
+		if (codec != null && !algo.name.equalsIgnoreCase(codec))
+			algo = Algo.create(conf);
+	}
+
 	@Override
 	public byte[] decompress(byte[] input) {
 		return algo.decompress(input);
 	}
+
+	@Override
+	public ByteBuffer decompress(ByteBuffer in, ByteBuffer out) {
+		return algo.decompress(in, out);
+	}
 }
@@ -15,13 +15,31 @@ public abstract class UniversalInputFormat<K, V> extends CodecInputFormat<K, V>
 		return UniversalCodec.HEADER_SIZE;
 	}
 
+	/*
+	 * Tasks create their Algo from the uc.codec set by Algo.create(md5, conf)
+	 */
+	@Override
+	public void restoreCodecInfo(Configuration conf) throws IOException {
+		if (getCodecName() != null)
+			synchronized (conf) {
+				conf.set("uc.codec", getCodecName());
+			}
+	}
+
 	@Override
 	public void extractCodecInfo(FSDataInputStream archive, long fileLen, Configuration conf) throws IOException {
 		int header_dummy = archive.readByte();
 		byte[] md5 = new byte[16];
 		archive.readFully(1, md5);
 
-		Algo.create(md5, conf);
+		Algo algo;
+
+		// footers of many files are read concurrently, all looking up their codec in the same configuration
+		synchronized (conf) {
+			algo = Algo.create(md5, conf);
+		}
+
+		setCodecName(algo == null ? null : algo.name);
 		
 		if (header_dummy != -95) throw new IOException("Wrong header dummy value: "+header_dummy+" != " + -95); // 0xA1
 		
@@ -31,12 +49,73 @@ public abstract class UniversalInputFormat<K, V> extends CodecInputFormat<K, V>
 		long footer_offset = Longs.fromBytes(archive.readByte(), archive.readByte(), archive.readByte(), archive.readByte(), 
 												archive.readByte(), archive.readByte(), archive.readByte(), archive.readByte());
 		
+		byte[] footer_start = new byte[1];
+		archive.readFully(footer_offset, footer_start, 0, 1);
+
+		// archives with padding or per-block metadata have the extended footer
+		if ((footer_start[0] & 0xFF) == UniversalArchiveWriter.EXTENDED_FOOTER_START) {
+			extractExtendedFooter(archive, footer_offset, nblocks);
+			return;
+		}
+
 		byte[] footer = new byte[4*nblocks+2];
-		archive.read(footer_offset, footer, 0, 4*nblocks+2);
+		archive.readFully(footer_offset, footer, 0, 4*nblocks+2);
 		
 		if (footer[0] != -94) throw new IOException("Wrong start footer dummy value: "+footer[0]+" != " + -94); // 0xA2
 		if (footer[4*nblocks+1] != -1) throw new IOException("Wrong end footer dummy value: "+footer[4*nblocks+1]+" != " + -1); // 0xFF
 		
 		extractBlockSizes(footer, 1, nblocks);
 	}
+
+	/*
+	 * Reads the footer starting with 0xA4, whose block entries hold the fields selected by the flags
+	 */
+	private void extractExtendedFooter(FSDataInputStream archive, long footer_offset, int nblocks) throws IOException {
+		byte[] flags_byte = new byte[1];
+		archive.readFully(footer_offset + 1, flags_byte, 0, 1);
+
+		int flags = flags_byte[0] & 0xFF;
+		boolean has_offsets = (flags & UniversalArchiveWriter.FLAG_OFFSETS) != 0;
+		boolean has_uncompressed_sizes = (flags & UniversalArchiveWriter.FLAG_UNCOMPRESSED_SIZES) != 0;
+		boolean has_records = (flags & UniversalArchiveWriter.FLAG_RECORDS) != 0;
+
+		int entry_size = 4 + (has_offsets ? 8 : 0) + (has_uncompressed_sizes ? 4 : 0) + (has_records ? 4 : 0);
+
+		byte[] footer = new byte[nblocks * entry_size + 1];
+		archive.readFully(footer_offset + 2, footer, 0, footer.length);
+
+		if (footer[footer.length-1] != -1) throw new IOException("Wrong end footer dummy value: "+footer[footer.length-1]+" != " + -1); // 0xFF
+
+		Long[] block_sizes = new Long[nblocks];
+		long[] block_offsets = has_offsets ? new long[nblocks] : null;
+		Long[] uncompressed_sizes = has_uncompressed_sizes ? new Long[nblocks] : null;
+		Long[] record_counts = has_records ? new Long[nblocks] : null;
+
+		for (int b = 0, i = 0; b < nblocks; b++) {
+			block_sizes[b] = (long) Ints.fromBytes(footer[i], footer[i+1], footer[i+2], footer[i+3]);
+			i += 4;
+
+			if (has_offsets) {
+				block_offsets[b] = Longs.fromBytes(footer[i], footer[i+1], footer[i+2], footer[i+3],
+													footer[i+4], footer[i+5], footer[i+6], footer[i+7]);
+				i += 8;
+			}
+
+			if (has_uncompressed_sizes) {
+				uncompressed_sizes[b] = (long) Ints.fromBytes(footer[i], footer[i+1], footer[i+2], footer[i+3]);
+				i += 4;
+			}
+
+			if (has_records) {
+				record_counts[b] = (long) Ints.fromBytes(footer[i], footer[i+1], footer[i+2], footer[i+3]);
+				i += 4;
+			}
+		}
+
+		setBlockSizes(block_sizes);
+		setBlockOffsets(block_offsets);
+		setUncompressedSizes(uncompressed_sizes);
+		setRecordCounts(record_counts);
+		setRecordAligned((flags & UniversalArchiveWriter.FLAG_RECORD_ALIGNED) != 0);
+	}
 }
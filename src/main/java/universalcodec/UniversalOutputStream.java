@@ -3,22 +3,19 @@ package universalcodec;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.nio.ByteBuffer;
-import java.util.ArrayList;
 
-import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.io.compress.CompressionOutputStream;
-import org.spark_project.guava.primitives.Ints;
-import org.spark_project.guava.primitives.Longs;
 
 
 public class UniversalOutputStream extends CompressionOutputStream {
 
 	private UniversalCompressor compressor;
 	private ByteBuffer uncompressed;
-	private ArrayList<Integer> blocksizes = new ArrayList<Integer>();
+	private UniversalArchiveWriter archive;
 	private byte[] in_data, out_data;
 
-	public UniversalOutputStream(OutputStream out, UniversalCompressor compressor) {
+	public UniversalOutputStream(OutputStream out, UniversalCompressor compressor, Configuration conf) {
 		super(out);
 		this.compressor = compressor;
 		uncompressed = ByteBuffer.allocate(UniversalCodec.UNCMP_BUFFER_SIZE);
@@ -28,9 +25,7 @@ public class UniversalOutputStream extends CompressionOutputStream {
 		out_data = new byte[UniversalCodec.CMP_BUFFER_SIZE];
 		
 		try {
-				out.write(0xA1);
-				out.write(DigestUtils.md5(compressor.algo.name));
-
+			archive = new UniversalArchiveWriter(out, compressor.algo, conf);
 		} catch (IOException e) {
 			e.printStackTrace();
 		}
@@ -48,27 +43,10 @@ public class UniversalOutputStream extends CompressionOutputStream {
 			
 			int compressed_size = compressor.compress(out_data, 0, out_data.length);
 			
-			blocksizes.add(compressed_size);
-			
-			out.write(out_data, 0, compressed_size);
+			archive.writeBlock(out_data, 0, compressed_size, len, -1);
 		}
 		
-		out.write(0xA2);
-		
-		for (int bs : blocksizes)
-			out.write(Ints.toByteArray(bs));
-		
-		long tot_sizes = 0;
-		
-		for (int bs : blocksizes)
-			tot_sizes += bs;
-		
-		out.write(0xFF);
-		
-		// System.out.println("BLOCKS: " + blocksizes);
-		
-		out.write(Ints.toByteArray(blocksizes.size()));
-		out.write(Longs.toByteArray(UniversalCodec.HEADER_SIZE + tot_sizes));
+		archive.finish();
 	}
 
 	@Override
@@ -111,9 +89,7 @@ public class UniversalOutputStream extends CompressionOutputStream {
 					
 					int compressed_size = compressor.compress(out_data, 0, out_data.length);
 					
-					blocksizes.add(compressed_size);
-					
-					out.write(out_data, 0, compressed_size);
+					archive.writeBlock(out_data, 0, compressed_size, pos, -1);
 					
 					uncompressed.put((byte)b);
 					prevC = b_c;
@@ -129,9 +105,7 @@ public class UniversalOutputStream extends CompressionOutputStream {
 				
 				int compressed_size = compressor.compress(out_data, 0, out_data.length);
 				
-				blocksizes.add(compressed_size);
-				
-				out.write(out_data, 0, compressed_size);
+				archive.writeBlock(out_data, 0, compressed_size, pos, -1);
 			}
 		}
 	}
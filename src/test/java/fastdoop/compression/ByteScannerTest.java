@@ -0,0 +1,63 @@
+package fastdoop.compression;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+public class ByteScannerTest {
+
+	@Test
+	public void findsFirstByteInRange() {
+		Random random = new Random(1);
+
+		// matches at every position of the words and in the bytes tested one by one
+		for (int n = 0; n < 1000; n++) {
+			byte[] buffer = new byte[random.nextInt(40)];
+
+			for (int i = 0; i < buffer.length; i++)
+				buffer[i] = (byte) "ACGT\n>@".charAt(random.nextInt(7));
+
+			int from = random.nextInt(buffer.length + 1);
+			int to = from + random.nextInt(buffer.length - from + 1);
+
+			for (byte b : new byte[] { '\n', '>', '@', (byte) 0x80 })
+				assertEquals(naiveIndexOf(buffer, from, to, b), ByteScanner.indexOf(buffer, from, to, b));
+		}
+	}
+
+	@Test
+	public void ignoresBytesDifferingInHighBit() {
+		byte[] buffer = new byte[16];
+		buffer[3] = (byte) ('\n' | 0x80);
+		buffer[11] = '\n';
+
+		assertEquals(11, ByteScanner.indexOf(buffer, 0, buffer.length, (byte) '\n'));
+	}
+
+	@Test
+	public void clampsRangeToBuffer() {
+		byte[] buffer = "ACGTACGTACGT".getBytes();
+
+		assertEquals(-1, ByteScanner.indexOf(buffer, 0, 100, (byte) '\n'));
+		assertEquals(3, ByteScanner.indexOf(buffer, -5, 4, (byte) 'T'));
+	}
+
+	@Test
+	public void findsByteStartingLine() {
+		byte[] buffer = "@a\nI@b\n@c\n".getBytes();
+
+		assertEquals(0, ByteScanner.indexOfLineStart(buffer, 0, buffer.length, (byte) '@'));
+		assertEquals(7, ByteScanner.indexOfLineStart(buffer, 1, buffer.length, (byte) '@'));
+		assertEquals(-1, ByteScanner.indexOfLineStart(buffer, 1, 7, (byte) '@'));
+	}
+
+	private static int naiveIndexOf(byte[] buffer, int from, int to, byte b) {
+		for (int i = from; i < to; i++)
+			if (buffer[i] == b)
+				return i;
+
+		return -1;
+	}
+}
@@ -0,0 +1,139 @@
+package fastdoop.compression;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileUtil;
+import org.apache.hadoop.fs.Path;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Round trips of FASTQ archives of long reads, wrapped on several lines, through
+ * {@link FASTQLongReadsRecordReader}.
+ */
+public class FASTQLongReadsRecordReaderTest {
+
+	private static final int CHUNK_SIZE = 100;
+
+	private File dir;
+
+	@Before
+	public void setUp() throws IOException {
+		dir = Files.createTempDirectory("uc-long").toFile();
+	}
+
+	@After
+	public void tearDown() {
+		FileUtil.fullyDelete(dir);
+	}
+
+	@Test
+	public void readsUnalignedArchive() throws Exception {
+		List<String> reads = randomLongReads(new Random(1), 200);
+
+		for (boolean final_newline : new boolean[] { true, false }) {
+			Path archive = TestArchives.writeUnaligned(new File(dir, "unaligned" + final_newline + ".fastq.uc"),
+					toWrappedFastq(reads, final_newline), 3000, newConfiguration());
+
+			assertEquals(toRecords(reads), read(archive));
+		}
+	}
+
+	@Test
+	public void readsRecordAlignedArchive() throws Exception {
+		List<String> reads = randomLongReads(new Random(2), 200);
+		Path archive = TestArchives.writeRecordAligned(new File(dir, "aligned.fastq.uc"), toWrappedFastq(reads, true),
+				(byte) '@', true, newConfiguration());
+
+		assertEquals(toRecords(reads), read(archive));
+	}
+
+	private static Configuration newConfiguration() {
+		Configuration conf = TestArchives.newConfiguration("fastq");
+		conf.setBoolean("uc.fastq.long.reads", true);
+		conf.setInt("uc.fastq.long.chunk.size", CHUNK_SIZE);
+
+		return conf;
+	}
+
+	private static List<String> read(Path archive) throws IOException, InterruptedException {
+		return TestArchives.read(new FASTQUniversalInputFormat(), archive, newConfiguration(), TestArchives::toString);
+	}
+
+	/*
+	 * Reads of up to 1000 bases, as "header|sequence|quality"
+	 */
+	private static List<String> randomLongReads(Random random, int count) {
+		List<String> reads = new ArrayList<>();
+
+		for (int i = 0; i < count; i++) {
+			int length = 1 + random.nextInt(1000);
+			StringBuilder sequence = new StringBuilder();
+			StringBuilder quality = new StringBuilder();
+
+			for (int j = 0; j < length; j++) {
+				sequence.append("ACGT".charAt(random.nextInt(4)));
+				quality.append((char) ('!' + random.nextInt(60)));
+			}
+
+			reads.add("read" + i + "|" + sequence + "|" + quality);
+		}
+
+		return reads;
+	}
+
+	/*
+	 * Sequences and qualities wrapped every 60 characters, so that some quality lines start with '@',
+	 * without the final newline if final_newline is not set
+	 */
+	private static byte[] toWrappedFastq(List<String> reads, boolean final_newline) {
+		StringBuilder file = new StringBuilder();
+
+		for (String read : reads) {
+			String[] fields = read.split("\\|");
+
+			file.append('@').append(fields[0]).append('\n');
+
+			for (int i = 0; i < fields[1].length(); i += 60)
+				file.append(fields[1], i, Math.min(fields[1].length(), i + 60)).append('\n');
+
+			file.append("+\n");
+
+			for (int i = 0; i < fields[2].length(); i += 60)
+				file.append(fields[2], i, Math.min(fields[2].length(), i + 60)).append('\n');
+		}
+
+		if (!final_newline)
+			file.setLength(file.length() - 1);
+
+		return file.toString().getBytes(StandardCharsets.US_ASCII);
+	}
+
+	/*
+	 * The records returned for each read, of up to CHUNK_SIZE bases
+	 */
+	private static List<String> toRecords(List<String> reads) {
+		List<String> records = new ArrayList<>();
+
+		for (String read : reads) {
+			String[] fields = read.split("\\|");
+
+			for (int i = 0; i < fields[1].length(); i += CHUNK_SIZE) {
+				int end = Math.min(fields[1].length(), i + CHUNK_SIZE);
+				records.add(fields[0] + "|" + fields[1].substring(i, end) + "|" + fields[2].substring(i, end));
+			}
+		}
+
+		return records;
+	}
+}
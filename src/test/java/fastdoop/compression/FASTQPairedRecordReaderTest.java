@@ -0,0 +1,115 @@
+package fastdoop.compression;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileUtil;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.mapreduce.InputSplit;
+import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.mapreduce.lib.input.FileInputFormat;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import splittablecodec.PairedFileSplit;
+import universalcodec.Algo;
+import universalcodec.RecordBlockReader;
+import universalcodec.UniversalArchiveWriter;
+
+/**
+ * Round trips of paired-end FASTQ archives through {@link FASTQPairedUniversalInputFormat}.
+ */
+public class FASTQPairedRecordReaderTest {
+
+	private File dir;
+
+	@Before
+	public void setUp() throws IOException {
+		dir = Files.createTempDirectory("uc-paired").toFile();
+	}
+
+	@After
+	public void tearDown() {
+		FileUtil.fullyDelete(dir);
+	}
+
+	@Test
+	public void readsMatesTogether() throws Exception {
+		Configuration conf = TestArchives.newConfiguration("fastq");
+		Random random = new Random(1);
+		List<String> first = TestArchives.randomFastq(random, 1000);
+		List<String> second = TestArchives.randomFastq(random, 1000);
+
+		Path r1 = writePaired(new File(dir, "reads_R1.fastq.uc"), new File(dir, "reads_R2.fastq.uc"), first, second, conf);
+
+		List<String> expected = new ArrayList<>();
+
+		for (int i = 0; i < first.size(); i++)
+			expected.add(first.get(i) + "|" + second.get(i));
+
+		// both archives in the input paths, the second mates being found from the first ones
+		Job job = Job.getInstance(conf);
+		FileInputFormat.addInputPath(job, new Path(dir.toURI()));
+		List<InputSplit> splits = TestArchives.getSplits(new FASTQPairedUniversalInputFormat(), job);
+
+		assertTrue(splits.size() > 1);
+
+		for (InputSplit split : splits)
+			assertEquals(r1.getName(), ((PairedFileSplit) split).getFirst().getPath().getName());
+
+		List<String> pairs = TestArchives.read(new FASTQPairedUniversalInputFormat(), r1, conf,
+				pair -> TestArchives.toString(pair.getFirst()) + "|" + TestArchives.toString(pair.getSecond()));
+
+		assertEquals(expected.size(), pairs.size());
+		assertEquals(expected, pairs);
+	}
+
+	/*
+	 * Writes the archives of the mates as UniversalCompressorUtility.compressPaired does, in small
+	 * blocks holding the same reads, and returns the first one
+	 */
+	private static Path writePaired(File r1, File r2, List<String> first, List<String> second, Configuration conf)
+			throws IOException {
+		Algo algo = Algo.create(conf);
+
+		try (OutputStream out1 = new FileOutputStream(r1); OutputStream out2 = new FileOutputStream(r2)) {
+			RecordBlockReader reader1 = new RecordBlockReader(new ByteArrayInputStream(TestArchives.toFastq(first, true)),
+					(byte) '@', TestArchives.BLOCK_SIZE);
+			RecordBlockReader reader2 = new RecordBlockReader(new ByteArrayInputStream(TestArchives.toFastq(second, true)),
+					(byte) '@', TestArchives.BLOCK_SIZE);
+			UniversalArchiveWriter archive1 = new UniversalArchiveWriter(out1, algo, conf);
+			UniversalArchiveWriter archive2 = new UniversalArchiveWriter(out2, algo, conf);
+			archive1.setRecordAligned(true);
+			archive2.setRecordAligned(true);
+
+			byte[] block1;
+
+			while ((block1 = reader1.nextBlock()) != null) {
+				int records = reader1.getRecordCount();
+				byte[] block2 = reader2.nextBlock(records);
+
+				byte[] compressed1 = algo.compress(block1);
+				byte[] compressed2 = algo.compress(block2);
+				archive1.writeBlock(compressed1, 0, compressed1.length, block1.length, records);
+				archive2.writeBlock(compressed2, 0, compressed2.length, block2.length, records);
+			}
+
+			archive1.finish();
+			archive2.finish();
+		}
+
+		return new Path(r1.toURI());
+	}
+}
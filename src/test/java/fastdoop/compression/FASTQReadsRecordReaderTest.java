@@ -0,0 +1,179 @@
+package fastdoop.compression;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileUtil;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.mapreduce.lib.input.FileInputFormat;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Round trips of FASTQ archives through {@link FASTQReadsRecordReader}, in each of its modes.
+ */
+public class FASTQReadsRecordReaderTest {
+
+	private File dir;
+
+	// read through FASTQUniversalBatchInputFormat
+	private boolean batches;
+
+	@Before
+	public void setUp() throws IOException {
+		dir = Files.createTempDirectory("uc-fastq").toFile();
+	}
+
+	@After
+	public void tearDown() {
+		FileUtil.fullyDelete(dir);
+	}
+
+	@Test
+	public void readsUnalignedArchive() throws Exception {
+		assertUnalignedRoundTrip(TestArchives.newConfiguration("fastq"));
+	}
+
+	@Test
+	public void readsLastRecordEndingInLastBlock() throws Exception {
+		assertLastRecordRoundTrip(TestArchives.newConfiguration("fastq"));
+	}
+
+	@Test
+	public void readsRecordsLargerThanBorderBuffer() throws Exception {
+		Configuration conf = TestArchives.newConfiguration("fastq");
+		conf.setInt("look_ahead_buffer_size", 16);
+
+		assertUnalignedRoundTrip(conf);
+	}
+
+	@Test
+	public void readsRecordAlignedArchive() throws Exception {
+		assertAlignedRoundTrip(TestArchives.newConfiguration("fastq"));
+	}
+
+	@Test
+	public void readsArchivesWithPrefetchedBlocks() throws Exception {
+		Configuration conf = TestArchives.newConfiguration("fastq");
+		conf.setInt("uc.prefetch.blocks", 2);
+
+		assertUnalignedRoundTrip(conf);
+		assertAlignedRoundTrip(conf);
+	}
+
+	@Test
+	public void readsArchivesWithParallelDecompression() throws Exception {
+		Configuration conf = TestArchives.newConfiguration("fastq");
+		conf.setBoolean("uc.decompress.parallel", true);
+		conf.setInt("uc.decompress.threads", 3);
+
+		assertUnalignedRoundTrip(conf);
+		assertAlignedRoundTrip(conf);
+	}
+
+	@Test
+	public void readsArchivesStreaming() throws Exception {
+		Configuration conf = TestArchives.newConfiguration("fastq");
+		conf.setBoolean("uc.reader.streaming", true);
+
+		// smaller than some records, so that the buffer is refilled and grown
+		conf.setInt("uc.reader.streaming.buffer.size", 256);
+
+		assertUnalignedRoundTrip(conf);
+		assertAlignedRoundTrip(conf);
+		assertLastRecordRoundTrip(conf);
+	}
+
+	@Test
+	public void readsArchivesInChunks() throws Exception {
+		Configuration conf = TestArchives.newConfiguration("fastq");
+		conf.setBoolean("uc.reader.chunked", true);
+		conf.setInt("uc.reader.chunk.size", 1024);
+
+		assertUnalignedRoundTrip(conf);
+		assertAlignedRoundTrip(conf);
+		assertLastRecordRoundTrip(conf);
+	}
+
+	@Test
+	public void readsArchivesByBatches() throws Exception {
+		batches = true;
+
+		// buffered, streaming and in chunks
+		for (String mode : new String[] { null, "uc.reader.streaming", "uc.reader.chunked" }) {
+			Configuration conf = TestArchives.newConfiguration("fastq");
+			conf.setInt("uc.batch.size", 7);
+
+			if (mode != null)
+				conf.setBoolean(mode, true);
+
+			assertUnalignedRoundTrip(conf);
+			assertAlignedRoundTrip(conf);
+			assertLastRecordRoundTrip(conf);
+		}
+	}
+
+	/*
+	 * Archives whose blocks are cut anywhere, so that records cross the end of the splits, with and
+	 * without the final newline
+	 */
+	private void assertUnalignedRoundTrip(Configuration conf) throws IOException, InterruptedException {
+		for (boolean final_newline : new boolean[] { true, false }) {
+			List<String> records = TestArchives.randomFastq(new Random(1), 1000);
+			Path archive = TestArchives.writeUnaligned(new File(dir, "unaligned" + final_newline + ".fastq.uc"),
+					TestArchives.toFastq(records, final_newline), 3000, conf);
+
+			assertRecords(records, archive, conf);
+		}
+	}
+
+	/*
+	 * Archives whose blocks end on records, with and without the final newline
+	 */
+	private void assertAlignedRoundTrip(Configuration conf) throws IOException, InterruptedException {
+		for (boolean final_newline : new boolean[] { true, false }) {
+			List<String> records = TestArchives.randomFastq(new Random(3), 1000);
+			Path archive = TestArchives.writeRecordAligned(new File(dir, "aligned" + final_newline + ".fastq.uc"),
+					TestArchives.toFastq(records, final_newline), (byte) '@', conf);
+
+			assertRecords(records, archive, conf);
+		}
+	}
+
+	/*
+	 * An archive of one block per split, the last one holding the end of the quality of the last
+	 * record only, without the final newline
+	 */
+	private void assertLastRecordRoundTrip(Configuration conf) throws IOException, InterruptedException {
+		List<String> records = TestArchives.randomFastq(new Random(2), 200);
+		byte[] data = TestArchives.toFastq(records, false);
+
+		conf.setLong(FileInputFormat.SPLIT_MAXSIZE, 1);
+		Path archive = TestArchives.writeUnaligned(new File(dir, "last.fastq.uc"), data, (data.length - 5) / 10, conf);
+
+		assertRecords(records, archive, conf);
+	}
+
+	private void assertRecords(List<String> expected, Path archive, Configuration conf)
+			throws IOException, InterruptedException {
+		List<String> records = new ArrayList<>();
+
+		if (batches)
+			for (String batch : TestArchives.read(new FASTQUniversalBatchInputFormat(), archive, conf, TestArchives::toString))
+				records.addAll(Arrays.asList(batch.split("\n")));
+		else
+			records = TestArchives.read(new FASTQUniversalInputFormat(), archive, conf, TestArchives::toString);
+
+		assertEquals(expected.size(), records.size());
+		assertEquals(expected, records);
+	}
+}
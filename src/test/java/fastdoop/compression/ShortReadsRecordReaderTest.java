@@ -0,0 +1,118 @@
+package fastdoop.compression;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.Random;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileUtil;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.mapreduce.lib.input.FileInputFormat;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Round trips of FASTA archives through {@link ShortReadsRecordReader}, in each of its modes.
+ */
+public class ShortReadsRecordReaderTest {
+
+	private File dir;
+
+	@Before
+	public void setUp() throws IOException {
+		dir = Files.createTempDirectory("uc-fasta").toFile();
+	}
+
+	@After
+	public void tearDown() {
+		FileUtil.fullyDelete(dir);
+	}
+
+	@Test
+	public void readsUnalignedArchive() throws Exception {
+		assertUnalignedRoundTrip(TestArchives.newConfiguration("fasta"));
+	}
+
+	@Test
+	public void readsLastRecordEndingInLastBlock() throws Exception {
+		assertLastRecordRoundTrip(TestArchives.newConfiguration("fasta"));
+	}
+
+	@Test
+	public void readsRecordsLargerThanBorderBuffer() throws Exception {
+		Configuration conf = TestArchives.newConfiguration("fasta");
+		conf.setInt("look_ahead_buffer_size", 16);
+
+		assertUnalignedRoundTrip(conf);
+	}
+
+	@Test
+	public void readsRecordAlignedArchive() throws Exception {
+		assertAlignedRoundTrip(TestArchives.newConfiguration("fasta"));
+	}
+
+	@Test
+	public void readsArchivesInChunks() throws Exception {
+		Configuration conf = TestArchives.newConfiguration("fasta");
+		conf.setBoolean("uc.reader.chunked", true);
+		conf.setInt("uc.reader.chunk.size", 1024);
+
+		assertUnalignedRoundTrip(conf);
+		assertAlignedRoundTrip(conf);
+		assertLastRecordRoundTrip(conf);
+	}
+
+	/*
+	 * Archives whose blocks are cut anywhere, so that records cross the end of the splits, with and
+	 * without the final newline
+	 */
+	private void assertUnalignedRoundTrip(Configuration conf) throws IOException, InterruptedException {
+		for (boolean final_newline : new boolean[] { true, false }) {
+			List<String> records = TestArchives.randomFasta(new Random(1), 500);
+			Path archive = TestArchives.writeUnaligned(new File(dir, "unaligned" + final_newline + ".fasta.uc"),
+					TestArchives.toFasta(records, final_newline), 3000, conf);
+
+			assertRecords(records, archive, conf);
+		}
+	}
+
+	/*
+	 * Archives whose blocks end on records, with and without the final newline
+	 */
+	private void assertAlignedRoundTrip(Configuration conf) throws IOException, InterruptedException {
+		for (boolean final_newline : new boolean[] { true, false }) {
+			List<String> records = TestArchives.randomFasta(new Random(3), 1000);
+			Path archive = TestArchives.writeRecordAligned(new File(dir, "aligned" + final_newline + ".fasta.uc"),
+					TestArchives.toFasta(records, final_newline), (byte) '>', conf);
+
+			assertRecords(records, archive, conf);
+		}
+	}
+
+	/*
+	 * An archive of one block per split, the last one holding the end of the last record only,
+	 * without the final newline
+	 */
+	private void assertLastRecordRoundTrip(Configuration conf) throws IOException, InterruptedException {
+		List<String> records = TestArchives.randomFasta(new Random(2), 100);
+		byte[] data = TestArchives.toFasta(records, false);
+
+		conf.setLong(FileInputFormat.SPLIT_MAXSIZE, 1);
+		Path archive = TestArchives.writeUnaligned(new File(dir, "last.fasta.uc"), data, (data.length - 5) / 10, conf);
+
+		assertRecords(records, archive, conf);
+	}
+
+	private static void assertRecords(List<String> expected, Path archive, Configuration conf)
+			throws IOException, InterruptedException {
+		List<String> records = TestArchives.read(new FASTAShortUniversalInputFormat(), archive, conf, TestArchives::toString);
+
+		assertEquals(expected.size(), records.size());
+		assertEquals(expected, records);
+	}
+}
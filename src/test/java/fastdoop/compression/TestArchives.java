@@ -0,0 +1,271 @@
+package fastdoop.compression;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.function.Function;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.io.WritableUtils;
+import org.apache.hadoop.mapreduce.InputSplit;
+import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.mapreduce.RecordReader;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+import org.apache.hadoop.mapreduce.TaskAttemptID;
+import org.apache.hadoop.mapreduce.lib.input.FileInputFormat;
+import org.apache.hadoop.mapreduce.task.TaskAttemptContextImpl;
+
+import fastdoop.QRecord;
+import fastdoop.Record;
+import universalcodec.Algo;
+import universalcodec.RecordBlockReader;
+import universalcodec.UniversalArchiveWriter;
+
+/**
+ * Small {@code .uc} archives compressed with gzip, for the round-trip tests of the record readers.
+ * Their blocks are either cut on record boundaries, as by {@code UniversalCompressorUtility}, or
+ * every given number of bytes, as by {@code UniversalOutputStream} and DSRC, so that the records
+ * cross the end of the splits. They are read back through the splits planned by an input format,
+ * serialized as for a task.
+ */
+final class TestArchives {
+
+	/*
+	 * Small enough to have a few blocks per split and many splits per archive
+	 */
+	static final int BLOCK_SIZE = 4 * 1024;
+	static final long SPLIT_SIZE = 12 * 1024;
+
+	private TestArchives() {
+	}
+
+	/**
+	 * Returns a configuration reading {@code .uc} archives of {@code format} ("fastq" or "fasta")
+	 * compressed with gzip, in splits of about {@link #SPLIT_SIZE} compressed bytes.
+	 */
+	static Configuration newConfiguration(String format) {
+		Configuration conf = new Configuration();
+
+		conf.set("io.compression.codecs", "universalcodec.UniversalCodec");
+		conf.set("uc.codec", "GZIP");
+		conf.set("uc.GZIP.compress.cmd", "gzip -c");
+		conf.set("uc.GZIP.decompress.cmd", "gzip -dc");
+		conf.set("uc.GZIP.compress.ext", "gz");
+		conf.set("uc.GZIP.decompress.ext", format);
+		conf.setBoolean("uc.GZIP.io.stream", true);
+		conf.setLong(FileInputFormat.SPLIT_MAXSIZE, SPLIT_SIZE);
+
+		return conf;
+	}
+
+	/**
+	 * Writes {@code data} in {@code file}, in blocks ending on the records starting with
+	 * {@code delimiter}, and declares them record-aligned, with their sizes and records in the footer.
+	 */
+	static Path writeRecordAligned(File file, byte[] data, byte delimiter, Configuration conf) throws IOException {
+		return writeRecordAligned(file, data, delimiter, false, conf);
+	}
+
+	/**
+	 * As {@link #writeRecordAligned(File, byte[], byte, Configuration)}, for FASTQ records whose
+	 * sequence and quality may be wrapped on several lines if {@code multiline} is set.
+	 */
+	static Path writeRecordAligned(File file, byte[] data, byte delimiter, boolean multiline, Configuration conf)
+			throws IOException {
+		Algo algo = Algo.create(conf);
+
+		try (OutputStream out = new FileOutputStream(file)) {
+			RecordBlockReader reader = new RecordBlockReader(new ByteArrayInputStream(data), delimiter, BLOCK_SIZE);
+			reader.setMultiline(multiline);
+			UniversalArchiveWriter archive = new UniversalArchiveWriter(out, algo, conf);
+			archive.setRecordAligned(true);
+
+			byte[] block;
+
+			while ((block = reader.nextBlock()) != null) {
+				byte[] compressed = algo.compress(block);
+				archive.writeBlock(compressed, 0, compressed.length, block.length, reader.getRecordCount());
+			}
+
+			archive.finish();
+		}
+
+		return new Path(file.toURI());
+	}
+
+	/**
+	 * Writes {@code data} in {@code file}, in blocks of {@code block_size} bytes cut anywhere, with
+	 * the footer listing their sizes only.
+	 */
+	static Path writeUnaligned(File file, byte[] data, int block_size, Configuration conf) throws IOException {
+		Algo algo = Algo.create(conf);
+
+		try (OutputStream out = new FileOutputStream(file)) {
+			UniversalArchiveWriter archive = new UniversalArchiveWriter(out, algo, conf);
+
+			for (int off = 0; off < data.length; off += block_size) {
+				byte[] block = Arrays.copyOfRange(data, off, Math.min(data.length, off + block_size));
+				byte[] compressed = algo.compress(block);
+				archive.writeBlock(compressed, 0, compressed.length);
+			}
+
+			archive.finish();
+		}
+
+		return new Path(file.toURI());
+	}
+
+	/**
+	 * Plans the splits of {@code path} with {@code format} and returns the values read from each of
+	 * them, in order, as strings.
+	 */
+	static <K, V> List<String> read(FileInputFormat<K, V> format, Path path, Configuration conf,
+									Function<V, String> value) throws IOException, InterruptedException {
+		Job job = Job.getInstance(conf);
+		FileInputFormat.addInputPath(job, path);
+
+		List<String> values = new ArrayList<>();
+
+		for (InputSplit split : getSplits(format, job)) {
+			TaskAttemptContext context = new TaskAttemptContextImpl(job.getConfiguration(), new TaskAttemptID());
+
+			try (RecordReader<K, V> reader = format.createRecordReader(split, context)) {
+				reader.initialize(split, context);
+
+				while (reader.nextKeyValue())
+					values.add(value.apply(reader.getCurrentValue()));
+			}
+		}
+
+		return values;
+	}
+
+	/**
+	 * Returns the splits planned by {@code format}, as deserialized by the tasks.
+	 */
+	static List<InputSplit> getSplits(FileInputFormat<?, ?> format, Job job) throws IOException {
+		List<InputSplit> splits = new ArrayList<>();
+
+		for (InputSplit split : format.getSplits(job))
+			splits.add((InputSplit) WritableUtils.clone((Writable) split, job.getConfiguration()));
+
+		return splits;
+	}
+
+	/**
+	 * Returns {@code count} FASTQ records with random sequences, some of their quality lines starting
+	 * with '@', and alternately with or without the header repeated after the '+'.
+	 */
+	static List<String> randomFastq(Random random, int count) {
+		List<String> records = new ArrayList<>();
+
+		for (int i = 0; i < count; i++) {
+			int length = 1 + random.nextInt(150);
+			StringBuilder sequence = new StringBuilder();
+			StringBuilder quality = new StringBuilder();
+
+			for (int j = 0; j < length; j++) {
+				sequence.append("ACGT".charAt(random.nextInt(4)));
+				quality.append(j == 0 && random.nextInt(3) == 0 ? '@' : (char) ('!' + random.nextInt(60)));
+			}
+
+			records.add("read" + i + "|" + sequence + "|" + quality);
+		}
+
+		return records;
+	}
+
+	/**
+	 * Returns the FASTQ file of the records of {@link #randomFastq}, without its final newline if
+	 * {@code final_newline} is not set.
+	 */
+	static byte[] toFastq(List<String> records, boolean final_newline) {
+		StringBuilder file = new StringBuilder();
+
+		for (int i = 0; i < records.size(); i++) {
+			String[] fields = records.get(i).split("\\|");
+
+			file.append('@').append(fields[0]).append('\n').append(fields[1]).append('\n')
+					.append(i % 2 == 0 ? "+" : "+" + fields[0]).append('\n').append(fields[2]).append('\n');
+		}
+
+		return toBytes(file, final_newline);
+	}
+
+	/**
+	 * Returns {@code count} FASTA records with random sequences of up to 300 bases.
+	 */
+	static List<String> randomFasta(Random random, int count) {
+		List<String> records = new ArrayList<>();
+
+		for (int i = 0; i < count; i++) {
+			int length = 1 + random.nextInt(300);
+			StringBuilder sequence = new StringBuilder();
+
+			for (int j = 0; j < length; j++)
+				sequence.append("ACGT".charAt(random.nextInt(4)));
+
+			records.add("seq" + i + "|" + sequence);
+		}
+
+		return records;
+	}
+
+	/**
+	 * Returns the FASTA file of the records of {@link #randomFasta}, with their sequences wrapped
+	 * every 80 bases, without its final newline if {@code final_newline} is not set.
+	 */
+	static byte[] toFasta(List<String> records, boolean final_newline) {
+		StringBuilder file = new StringBuilder();
+
+		for (String record : records) {
+			String[] fields = record.split("\\|");
+			file.append('>').append(fields[0]).append('\n');
+
+			for (int i = 0; i < fields[1].length(); i += 80)
+				file.append(fields[1], i, Math.min(fields[1].length(), i + 80)).append('\n');
+		}
+
+		return toBytes(file, final_newline);
+	}
+
+	private static byte[] toBytes(StringBuilder file, boolean final_newline) {
+		if (!final_newline)
+			file.setLength(file.length() - 1);
+
+		return file.toString().getBytes(StandardCharsets.US_ASCII);
+	}
+
+	static String toString(QRecord record) {
+		return record.getKey() + "|" + record.getValue() + "|" + record.getQuality();
+	}
+
+	/**
+	 * The records of a batch, one per line.
+	 */
+	static String toString(FASTQBatch batch) {
+		StringBuilder records = new StringBuilder();
+
+		for (int i = 0; i < batch.size(); i++)
+			records.append(i > 0 ? "\n" : "").append(batch.getKey(i)).append('|').append(batch.getValue(i)).append('|')
+					.append(batch.getQuality(i));
+
+		return records.toString();
+	}
+
+	/**
+	 * The sequence lines of a FASTA record are joined.
+	 */
+	static String toString(Record record) {
+		return record.getKey() + "|" + record.getValue().replace("\n", "");
+	}
+}
@@ -0,0 +1,93 @@
+package splittablecodec;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.io.WritableUtils;
+import org.apache.hadoop.io.compress.CodecPool;
+import org.junit.Test;
+
+import universalcodec.UniversalCodec;
+
+public class BlockIndexTest {
+
+	/*
+	 * Blocks of 10, 20, 30 and 40 bytes from offset 17, with a gap of 100 bytes before the last one
+	 */
+	private static BlockIndex index(boolean uncompressed_sizes) {
+		return new BlockIndex(new long[] { 17, 27, 47, 177 }, new int[] { 10, 20, 30, 40 },
+				uncompressed_sizes ? new int[] { 100, 200, 300, 400 } : null);
+	}
+
+	@Test
+	public void buildsOffsetsFromSizes() {
+		BlockIndex index = BlockIndex.fromSizes(17, new Long[] { 10L, 20L, 30L }, null);
+
+		assertEquals(3, index.size());
+		assertEquals(17, index.getOffset(0));
+		assertEquals(27, index.getOffset(1));
+		assertEquals(47, index.getOffset(2));
+		assertFalse(index.hasUncompressedSizes());
+		assertEquals(-1, index.getUncompressedSize());
+		assertEquals(30, index.getMaxSize());
+	}
+
+	@Test
+	public void slicesBlocksStartingInRange() {
+		BlockIndex index = index(true);
+
+		assertOffsets(new long[] { 17, 27, 47, 177 }, index.slice(0, Long.MAX_VALUE));
+		assertOffsets(new long[] { 27, 47 }, index.slice(18, 177));
+		assertOffsets(new long[] { 27 }, index.slice(27, 47));
+		assertOffsets(new long[] { 177 }, index.slice(48, 1000));
+		assertOffsets(new long[0], index.slice(178, 1000));
+		assertOffsets(new long[0], index.slice(0, 17));
+
+		BlockIndex slice = index.slice(18, 177);
+
+		assertEquals(20, slice.getSize(0));
+		assertEquals(300, slice.getUncompressedSize(1));
+		assertEquals(500, slice.getUncompressedSize());
+	}
+
+	@Test
+	public void serializesOffsetsAndSizes() throws IOException {
+		for (boolean uncompressed_sizes : new boolean[] { true, false }) {
+			BlockIndex index = index(uncompressed_sizes);
+			BlockIndex copy = WritableUtils.clone(index, new Configuration());
+
+			assertOffsets(new long[] { 17, 27, 47, 177 }, copy);
+			assertEquals(40, copy.getSize(3));
+			assertEquals(uncompressed_sizes, copy.hasUncompressedSizes());
+			assertEquals(index.getUncompressedSize(), copy.getUncompressedSize());
+		}
+	}
+
+	@Test
+	public void failsWithoutBlockIndexBeforeTakingDecompressor() {
+		UniversalCodec codec = new UniversalCodec();
+		codec.setConf(new Configuration());
+
+		try {
+			codec.createInputStream(new ByteArrayInputStream(new byte[0]));
+			fail("a stream without block index must fail");
+		} catch (IOException e) {
+			assertEquals(0, CodecPool.getLeasedDecompressorsCount(codec));
+		}
+	}
+
+	private static void assertOffsets(long[] offsets, BlockIndex index) {
+		long[] actual = new long[index.size()];
+
+		for (int i = 0; i < actual.length; i++)
+			actual[i] = index.getOffset(i);
+
+		assertArrayEquals(offsets, actual);
+	}
+}
@@ -0,0 +1,110 @@
+package splittablecodec;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.FileUtil;
+import org.apache.hadoop.fs.Path;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class FooterCacheTest {
+
+	private File dir;
+	private Configuration conf;
+	private FileSystem fs;
+
+	@Before
+	public void setUp() throws IOException {
+		dir = Files.createTempDirectory("uc-footers").toFile();
+
+		// nothing kept in memory, so that the entries are read back from the sidecars
+		conf = new Configuration();
+		conf.setBoolean("uc.index.sidecar", true);
+		conf.setInt("uc.footer.cache.entries", 0);
+
+		fs = FileSystem.getLocal(conf);
+	}
+
+	@After
+	public void tearDown() {
+		FileUtil.fullyDelete(dir);
+	}
+
+	@Test
+	public void readsEntriesBackFromSidecar() throws IOException {
+		FileStatus archive = writeArchive("archive.uc", 100);
+
+		FooterCache.put(FooterCacheTest.class, archive, entry(10L, 20L), conf);
+		assertTrue(fs.exists(FooterCache.sidecarPath(archive.getPath())));
+
+		FooterCache.Entry entry = FooterCache.get(FooterCacheTest.class, archive, conf);
+
+		assertEquals("GZIP", entry.codec_name);
+		assertArrayEquals(new long[] { 10, 20 }, toLongs(entry.block_sizes));
+		assertTrue(entry.record_aligned);
+
+		// a sidecar is replaced by the next one, leaving no temporary file
+		FooterCache.put(FooterCacheTest.class, archive, entry(30L), conf);
+
+		assertArrayEquals(new long[] { 30 }, toLongs(FooterCache.get(FooterCacheTest.class, archive, conf).block_sizes));
+
+		for (String name : dir.list())
+			assertFalse(name, name.endsWith(".tmp"));
+	}
+
+	@Test
+	public void ignoresSidecarOfRewrittenArchive() throws IOException {
+		FileStatus archive = writeArchive("archive.uc", 100);
+		FooterCache.put(FooterCacheTest.class, archive, entry(10L, 20L), conf);
+
+		FileStatus rewritten = writeArchive("archive.uc", 200);
+
+		assertNull(FooterCache.get(FooterCacheTest.class, rewritten, conf));
+	}
+
+	@Test
+	public void ignoresSidecarOfOtherFormat() throws IOException {
+		FileStatus archive = writeArchive("archive.uc", 100);
+		FooterCache.put(FooterCacheTest.class, archive, entry(10L, 20L), conf);
+
+		assertNull(FooterCache.get(BlockIndexTest.class, archive, conf));
+	}
+
+	private FileStatus writeArchive(String name, int length) throws IOException {
+		File file = new File(dir, name);
+		Files.write(file.toPath(), new byte[length]);
+
+		return fs.getFileStatus(new Path(file.toURI()));
+	}
+
+	private static FooterCache.Entry entry(Long... block_sizes) {
+		FooterCache.Entry entry = new FooterCache.Entry();
+
+		entry.codec_name = "GZIP";
+		entry.block_sizes = block_sizes;
+		entry.record_aligned = true;
+
+		return entry;
+	}
+
+	private static long[] toLongs(Long[] values) {
+		long[] longs = new long[values.length];
+
+		for (int i = 0; i < longs.length; i++)
+			longs[i] = values[i];
+
+		return longs;
+	}
+}
@@ -0,0 +1,207 @@
+package universalcodec;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class RecordBlockReaderTest {
+
+	private static final int BLOCK_SIZE = 1000;
+
+	@Test
+	public void cutsFastqOnRecordStarts() throws IOException {
+		byte[] data = fastq(new Random(1), 500, 1);
+		List<byte[]> blocks = new ArrayList<>();
+		int records = 0;
+
+		RecordBlockReader reader = new RecordBlockReader(new ByteArrayInputStream(data), (byte) '@', BLOCK_SIZE);
+		byte[] block;
+
+		while ((block = reader.nextBlock()) != null) {
+			blocks.add(block);
+			records += reader.getRecordCount();
+
+			// whole records only, even if a quality line starts with '@'
+			assertEquals(0, countLines(block) % 4);
+		}
+
+		for (int i = 0; i < blocks.size() - 1; i++)
+			assertTrue(blocks.get(i).length >= BLOCK_SIZE);
+
+		assertEquals(500, records);
+		assertArrayEquals(data, concat(blocks));
+	}
+
+	@Test
+	public void countsLastFastqRecordWithoutNewline() throws IOException {
+		byte[] data = fastq(new Random(2), 20, 1);
+		data = Arrays.copyOf(data, data.length - 1);
+
+		RecordBlockReader reader = new RecordBlockReader(new ByteArrayInputStream(data), (byte) '@', data.length * 2);
+
+		assertArrayEquals(data, reader.nextBlock());
+		assertEquals(20, reader.getRecordCount());
+		assertNull(reader.nextBlock());
+	}
+
+	@Test
+	public void cutsFastaOnHeaders() throws IOException {
+		StringBuilder file = new StringBuilder();
+		Random random = new Random(3);
+
+		for (int i = 0; i < 300; i++) {
+			file.append(">seq").append(i).append('\n');
+
+			for (int j = random.nextInt(4); j >= 0; j--)
+				file.append(bases(random, 1 + random.nextInt(80))).append('\n');
+		}
+
+		byte[] data = file.toString().getBytes(StandardCharsets.US_ASCII);
+		List<byte[]> blocks = new ArrayList<>();
+		int records = 0;
+
+		RecordBlockReader reader = new RecordBlockReader(new ByteArrayInputStream(data), (byte) '>', BLOCK_SIZE);
+		byte[] block;
+
+		while ((block = reader.nextBlock()) != null) {
+			blocks.add(block);
+			records += reader.getRecordCount();
+
+			assertEquals('>', block[0]);
+		}
+
+		assertEquals(300, records);
+		assertArrayEquals(data, concat(blocks));
+	}
+
+
+
+	@Test
+	public void cutsBlocksOfGivenRecordCount() throws IOException {
+		byte[] data = fastq(new Random(4), 95, 1);
+		List<byte[]> blocks = new ArrayList<>();
+
+		RecordBlockReader reader = new RecordBlockReader(new ByteArrayInputStream(data), (byte) '@', BLOCK_SIZE);
+		byte[] block;
+
+		while ((block = reader.nextBlock(10)) != null) {
+			blocks.add(block);
+			assertEquals(blocks.size() < 10 ? 40 : 20, countLines(block));
+		}
+
+		assertEquals(10, blocks.size());
+		assertArrayEquals(data, concat(blocks));
+	}
+	@Test
+	public void cutsWrappedFastqOnRecordStarts() throws IOException {
+		byte[] data = fastq(new Random(5), 300, 3);
+		List<byte[]> blocks = new ArrayList<>();
+		int records = 0;
+
+		RecordBlockReader reader = new RecordBlockReader(new ByteArrayInputStream(data), (byte) '@', BLOCK_SIZE);
+		reader.setMultiline(true);
+		byte[] block;
+
+		while ((block = reader.nextBlock()) != null) {
+			blocks.add(block);
+			records += reader.getRecordCount();
+
+			assertEquals('@', block[0]);
+			assertEquals('\n', block[block.length - 1]);
+		}
+
+		assertEquals(300, records);
+		assertArrayEquals(data, concat(blocks));
+	}
+	@Test
+	public void cutsUndelimitedDataOnBlockSize() throws IOException {
+		byte[] data = fastq(new Random(6), 100, 1);
+		List<byte[]> blocks = new ArrayList<>();
+
+		RecordBlockReader reader = new RecordBlockReader(new ByteArrayInputStream(data), (byte) '\0', BLOCK_SIZE);
+		byte[] block;
+
+		while ((block = reader.nextBlock()) != null) {
+			blocks.add(block);
+
+			assertEquals(-1, reader.getRecordCount());
+		}
+
+		for (int i = 0; i < blocks.size() - 1; i++)
+			assertEquals(BLOCK_SIZE, blocks.get(i).length);
+
+		assertArrayEquals(data, concat(blocks));
+	}
+
+	/*
+	 * FASTQ records with a third of their quality lines starting with '@', their sequence and
+	 * quality wrapped on up to max_lines lines
+	 */
+	private static byte[] fastq(Random random, int count, int max_lines) {
+		StringBuilder file = new StringBuilder();
+
+		for (int i = 0; i < count; i++) {
+			int lines = 1 + random.nextInt(max_lines);
+			int length = lines * (1 + random.nextInt(100));
+			StringBuilder quality = new StringBuilder();
+
+			for (int j = 0; j < length; j++)
+				quality.append(j == 0 && random.nextInt(3) == 0 ? '@' : (char) ('!' + random.nextInt(60)));
+
+			file.append("@read").append(i).append('\n').append(wrap(bases(random, length), lines)).append("+\n")
+					.append(wrap(quality.toString(), lines));
+		}
+
+		return file.toString().getBytes(StandardCharsets.US_ASCII);
+	}
+
+	private static String wrap(String line, int lines) {
+		StringBuilder wrapped = new StringBuilder();
+		int width = line.length() / lines;
+
+		for (int i = 0; i < lines; i++)
+			wrapped.append(line, i * width, i == lines - 1 ? line.length() : (i + 1) * width).append('\n');
+
+		return wrapped.toString();
+	}
+
+	private static String bases(Random random, int length) {
+		StringBuilder bases = new StringBuilder();
+
+		for (int i = 0; i < length; i++)
+			bases.append("ACGT".charAt(random.nextInt(4)));
+
+		return bases.toString();
+	}
+
+	private static int countLines(byte[] block) {
+		int lines = 0;
+
+		for (byte b : block)
+			if (b == '\n')
+				lines++;
+
+		return lines;
+	}
+
+	private static byte[] concat(List<byte[]> blocks) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+		for (byte[] block : blocks)
+			out.write(block);
+
+		return out.toByteArray();
+	}
+}
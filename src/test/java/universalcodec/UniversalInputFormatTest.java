@@ -0,0 +1,250 @@
+package universalcodec;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.function.IntUnaryOperator;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileUtil;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.mapreduce.InputSplit;
+import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.mapreduce.RecordReader;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+import org.apache.hadoop.mapreduce.lib.input.FileInputFormat;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import splittablecodec.BlockIndex;
+import splittablecodec.CodecFileSplit;
+
+/**
+ * Split planning of {@code .uc} archives, whose blocks are never decompressed here: they are just
+ * zeros, described by the footer.
+ */
+public class UniversalInputFormatTest {
+
+	private File dir;
+	private Configuration conf;
+	private boolean record_aligned;
+
+	/*
+	 * Only the footers are read
+	 */
+	public static class FooterInputFormat extends UniversalInputFormat<Object, Object> {
+
+		@Override
+		public RecordReader<Object, Object> createRecordReader(InputSplit split, TaskAttemptContext context) {
+			throw new UnsupportedOperationException();
+		}
+	}
+
+	@Before
+	public void setUp() throws IOException {
+		dir = Files.createTempDirectory("uc-splits").toFile();
+
+		conf = new Configuration();
+		conf.set("uc.codec", "GZIP");
+		conf.set("uc.GZIP.compress.cmd", "gzip -c");
+		conf.set("uc.GZIP.decompress.cmd", "gzip -dc");
+		conf.set("uc.GZIP.compress.ext", "gz");
+	}
+
+	@After
+	public void tearDown() {
+		FileUtil.fullyDelete(dir);
+	}
+
+	@Test
+	public void plansSplitsOnBlockBoundaries() throws IOException {
+		Path archive = writeArchive("blocks.uc", 20, 1000, false);
+		conf.setLong(FileInputFormat.SPLIT_MAXSIZE, 3500);
+
+		List<InputSplit> splits = getSplits(archive);
+		long next = UniversalCodec.HEADER_SIZE;
+
+		assertEquals(7, splits.size());
+
+		for (int i = 0; i < splits.size(); i++) {
+			CodecFileSplit split = (CodecFileSplit) splits.get(i);
+			BlockIndex blocks = split.getBlockIndex();
+
+			// three whole blocks per split, the last one holding the two left
+			assertEquals(next, split.getStart());
+			assertEquals(i < 6 ? 3 : 2, blocks.size());
+			assertEquals(blocks.size() * 1000, split.getLength());
+			assertEquals(split.getStart(), blocks.getOffset(0));
+			assertTrue(split.getLocations().length > 0);
+
+			next = split.getStart() + split.getLength();
+
+			// the first block of the next split, if any, to complete the last record
+			BlockIndex border = split.getBorderIndex();
+
+			assertEquals(i < 6 ? 1 : 0, border.size());
+
+			if (border.size() > 0)
+				assertEquals(next, border.getOffset(0));
+		}
+	}
+
+	@Test
+	public void plansSplitsWithoutBorderForRecordAlignedArchives() throws IOException {
+		record_aligned = true;
+		Path archive = writeArchive("record_aligned.uc", 20, 1000, true);
+		conf.setLong(FileInputFormat.SPLIT_MAXSIZE, 3500);
+
+		for (InputSplit split : getSplits(archive)) {
+			assertTrue(((CodecFileSplit) split).isRecordAligned());
+			assertEquals(0, ((CodecFileSplit) split).getBorderIndex().size());
+		}
+	}
+
+	@Test
+	public void plansSplitsOfEachFile() throws IOException {
+		Path first = writeArchive("first.uc", 5, 1000, false);
+		Path second = writeArchive("second.uc", 3, 2000, false);
+		conf.setLong(FileInputFormat.SPLIT_MAXSIZE, 2000);
+
+		int first_splits = 0, second_splits = 0;
+
+		for (InputSplit split : getSplits(first, second)) {
+			Path path = ((CodecFileSplit) split).getPath();
+
+			if (path.getName().equals(first.getName()))
+				first_splits++;
+			else if (path.getName().equals(second.getName()))
+				second_splits++;
+		}
+
+		// the blocks of each file are planned on the footer of that file
+		assertEquals(3, first_splits);
+		assertEquals(3, second_splits);
+	}
+
+	@Test
+	public void plansSplitsOfBlocksAlignedToHdfsBlocks() throws IOException {
+		conf.setBoolean("uc.hdfs.block.align", true);
+		conf.setLong("uc.hdfs.block.size", 4096);
+		conf.setLong(FileInputFormat.SPLIT_MAXSIZE, 4096);
+
+		Path archive = writeArchive("aligned.uc", 10, 1500, false);
+		int blocks = 0;
+
+		for (InputSplit split : getSplits(archive)) {
+			CodecFileSplit file_split = (CodecFileSplit) split;
+			BlockIndex index = file_split.getBlockIndex();
+
+			// splits of the size of an HDFS block are read from a single one
+			assertEquals(file_split.getStart() / 4096, (file_split.getStart() + file_split.getLength() - 1) / 4096);
+
+			// no block crosses an HDFS block, the padding before them being skipped
+			for (int i = 0; i < index.size(); i++, blocks++)
+				assertEquals(index.getOffset(i) / 4096, (index.getOffset(i) + index.getSize(i) - 1) / 4096);
+		}
+
+		assertEquals(10, blocks);
+	}
+
+	@Test
+	public void balancesSplitsByRecords() throws IOException {
+		Path archive = writeArchive("records.uc", 20, 1000, true);
+		conf.setLong("uc.split.target.records", 150);
+
+		assertBalanced(getSplits(archive), UniversalInputFormatTest::records, 150);
+	}
+
+	@Test
+	public void balancesSplitsByUncompressedBytes() throws IOException {
+		Path archive = writeArchive("bytes.uc", 20, 1000, true);
+		conf.setLong("uc.split.target.bytes", 19000);
+
+		assertBalanced(getSplits(archive), UniversalInputFormatTest::uncompressedSize, 19000);
+	}
+
+	@Test
+	public void balancesSplitsByCompressedBytesWithoutFooterMetadata() throws IOException {
+		Path archive = writeArchive("sizes.uc", 20, 1000, false);
+		conf.setLong("uc.split.target.records", 150);
+		conf.setLong(FileInputFormat.SPLIT_MAXSIZE, 3500);
+
+		assertBalanced(getSplits(archive), block -> 1000, 3500);
+	}
+
+	/*
+	 * Asserts that the splits cover the blocks of 1000 bytes of the archive in order, each one
+	 * taking as many blocks as fit in the target
+	 */
+	private static void assertBalanced(List<InputSplit> splits, IntUnaryOperator weight, long target) {
+		int next_block = 0;
+
+		for (InputSplit split : splits) {
+			BlockIndex index = ((CodecFileSplit) split).getBlockIndex();
+			long total = 0;
+
+			for (int i = 0; i < index.size(); i++, next_block++) {
+				assertEquals(UniversalCodec.HEADER_SIZE + next_block * 1000L, index.getOffset(i));
+				total += weight.applyAsInt(next_block);
+			}
+
+			assertTrue(total <= target || index.size() == 1);
+
+			if (next_block < 20)
+				assertTrue(total + weight.applyAsInt(next_block) > target);
+		}
+
+		assertEquals(20, next_block);
+	}
+
+	/*
+	 * Writes an archive of block_count blocks of block_size bytes, with their uncompressed
+	 * sizes and their records in the footer if with_metadata is set
+	 */
+	private Path writeArchive(String name, int block_count, int block_size, boolean with_metadata) throws IOException {
+		File file = new File(dir, name);
+		byte[] block = new byte[block_size];
+
+		try (OutputStream out = new FileOutputStream(file)) {
+			UniversalArchiveWriter archive = new UniversalArchiveWriter(out, Algo.create(conf), conf);
+			archive.setRecordAligned(record_aligned);
+
+			for (int i = 0; i < block_count; i++)
+				if (with_metadata)
+					archive.writeBlock(block, 0, block_size, uncompressedSize(i), records(i));
+				else
+					archive.writeBlock(block, 0, block_size);
+
+			archive.finish();
+		}
+
+		return new Path(file.toURI());
+	}
+
+	/*
+	 * Blocks alternately small and large once decompressed
+	 */
+	private static int uncompressedSize(int block) {
+		return block % 2 == 0 ? 1000 : 9000;
+	}
+
+	private static int records(int block) {
+		return block % 2 == 0 ? 90 : 10;
+	}
+
+	private List<InputSplit> getSplits(Path... archives) throws IOException {
+		Job job = Job.getInstance(conf);
+
+		for (Path archive : archives)
+			FileInputFormat.addInputPath(job, archive);
+
+		return new FooterInputFormat().getSplits(job);
+	}
+}